@@ -0,0 +1,272 @@
+package main;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import network.AddressBook;
+import network.LinkQuality;
+import network.MessageCodec;
+import network.MessagePool;
+import network.OutboundBatcher;
+import network.Packet;
+import network.RedundancyController;
+import network.Transport;
+import utils.CarsBehavior;
+import utils.ColorTable;
+import utils.Constants;
+import utils.Mailbox;
+import utils.Message;
+import utils.MessageDatagram;
+import utils.Odometry;
+import utils.Opcode;
+import utils.PidController;
+import utils.SpeedProfile;
+
+/**
+ * AllocationBenchmark class
+ *
+ * <p>Counts the bytes allocated by the work a robot does at each tick,
+ * without the sensors nor the motors : classifying a color sample,
+ * updating the odometry, the steering PID and the speed profile, sending
+ * the coordinates every COORDINATES_PERIOD_MS through the codec and the
+ * batcher. The receiving side (decoding a speed order into a pooled message,
+ * through the mailbox) is counted per packet.</p>
+ *
+ * <p>The coordinates are sent both ways : with a new Message at each send,
+ * as followLine used to, and with the message allocated once. On a JVM
+ * counting the allocations of each thread (com.sun.management), the bytes
+ * are exact. Elsewhere, as on the brick, the heap used is compared, as the
+ * allocation probe of the ControlLoop does.</p>
+ *
+ * <pre>
+ * java -cp classes main.AllocationBenchmark [ticks]
+ * </pre>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ */
+public class AllocationBenchmark {
+
+	private final static int CAR_ID = 12;
+	private final static int LEADER_ID = 11;
+
+	/**
+	 * Transport which drops the packets, nothing is allocated to send them
+	 */
+	private static class NullTransport implements Transport {
+		private final Packet packet = new Packet(Constants.PACKET_SIZE);
+		private long sent = 0;
+
+		@Override
+		public void open() {
+
+		}
+
+		@Override
+		public void join(InetAddress group) {
+
+		}
+
+		@Override
+		public Packet acquire() {
+			packet.getBuffer().clear();
+			packet.setCopies(1);
+			return packet;
+		}
+
+		@Override
+		public void send(Packet packet) {
+			sent++;
+		}
+
+		@Override
+		public long getSentPackets() {
+			return sent;
+		}
+
+		@Override
+		public long getReceivedPackets() {
+			return 0;
+		}
+
+		@Override
+		public long getDroppedPackets() {
+			return 0;
+		}
+	}
+
+	/**
+	 * Bytes allocated by the current thread
+	 */
+	private static class ThreadCounter {
+		private final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		private final long thread = Thread.currentThread().getId();
+
+		long allocated() {
+			return bean.getThreadAllocatedBytes(thread);
+		}
+	}
+
+	private ThreadCounter counter;
+	private final Runtime runtime = Runtime.getRuntime();
+
+	/* Per tick state of the robot */
+	private final ColorTable colorTable = new ColorTable(0);
+	private final Odometry odometry = new Odometry();
+	private final PidController steeringPid = new PidController(
+			Constants.PID_KP, Constants.PID_KI, Constants.PID_KD,
+			Constants.PID_OUTPUT_LIMIT);
+	private final SpeedProfile speedProfile = new SpeedProfile();
+	private final float[] rgb = new float[3];
+	private final CarsBehavior coordinates = new CarsBehavior(0, 0, 0, 0, 0,
+			0);
+	private final Message coordinatesMessage = new Message(
+			Opcode.COORDINATES, coordinates);
+	private final MessageCodec codec = new MessageCodec();
+	private final OutboundBatcher batcher;
+
+	/* Receiving side */
+	private final MessageCodec receiver = new MessageCodec();
+	private final MessagePool messagePool = new MessagePool(
+			Constants.MESSAGE_POOL_SIZE);
+	private final Mailbox mailbox = new Mailbox(Constants.MESSAGE_POOL_SIZE);
+	private final MessageDatagram frame = new MessageDatagram();
+	private final ByteBuffer speedPacket = ByteBuffer
+			.allocate(Constants.PACKET_SIZE);
+
+	/* Result of the last measure */
+	private long allocatingTicks;
+	private long allocatedBytes;
+
+	private AllocationBenchmark() throws Exception {
+		try {
+			counter = new ThreadCounter();
+			counter.allocated();
+		} catch (Throwable e) {
+			/* No per thread counter on this JVM */
+			counter = null;
+		}
+		batcher = new OutboundBatcher(CAR_ID, new NullTransport(), codec,
+				new RedundancyController(new LinkQuality()), new AddressBook(
+						CAR_ID));
+		for (int bin = 0; bin < SpeedProfile.BINS; bin++) {
+			speedProfile.setBin(bin, 40 + bin % 20);
+		}
+		speedProfile.start(0);
+
+		/* A speed order of the leader, as it arrives */
+		MessageCodec leader = new MessageCodec();
+		Message speed = new Message(Opcode.SPEED, null);
+		speed.setNumber(42);
+		leader.beginFrame(speedPacket, LEADER_ID, CAR_ID / 10 * 10, 0);
+		leader.encodeMessage(CAR_ID / 10 * 10, speed, speedPacket);
+		leader.endFrame(speedPacket, 1, 1, 0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		AllocationBenchmark benchmark = new AllocationBenchmark();
+		System.out.println("Allocations, "
+				+ (benchmark.counter != null ? "per thread counter"
+						: "heap used") + ", " + ticks + " ticks");
+		System.out.println(String.format("%-28s %10s %10s", "",
+				"bytes/tick", "allocating"));
+
+		String[] names = { "tick, new coordinates", "tick, preallocated",
+				"receive speed order" };
+		for (int round = 0; round < 2; round++) {
+			/* The first round warms the JIT up, and the lazy allocations */
+			for (int variant = 0; variant < names.length; variant++) {
+				benchmark.measure(variant, ticks);
+				if (round == 1) {
+					System.out.println(String.format("%-28s %10.1f %9d%%",
+							names[variant], benchmark.allocatedBytes
+									/ (double) ticks,
+							benchmark.allocatingTicks * 100 / ticks));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run ticks of a variant, counting the allocations of each one
+	 * @param variant : 0 coordinates sent in a new message, 1 in the same
+	 * 	message, 2 receive path
+	 * @param ticks : number of ticks
+	 */
+	private void measure(int variant, int ticks) {
+		allocatingTicks = 0;
+		allocatedBytes = 0;
+		for (int tick = 0; tick < ticks; tick++) {
+			long before = allocated();
+			if (variant == 2) {
+				receive();
+			} else {
+				tick(tick, variant == 0);
+			}
+			long grown = allocated() - before;
+			if (grown > 0) {
+				allocatingTicks++;
+				allocatedBytes += grown;
+			}
+		}
+	}
+
+	private long allocated() {
+		if (counter != null) {
+			return counter.allocated();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * What followLine does at each tick
+	 * @param allocate : send the coordinates in a new message
+	 */
+	private void tick(int tick, boolean allocate) {
+		/* Sense */
+		rgb[0] = 0.05f + (tick % 7) * 0.01f;
+		rgb[1] = 0.06f;
+		rgb[2] = 0.04f;
+		int color = colorTable.classify(rgb);
+		odometry.update(tick * 10, tick * 10 + tick % 3);
+
+		/* Decide */
+		double error = (tick % 11 - 5) / 50.;
+		double turn = steeringPid.update(error,
+				Constants.CONTROL_PERIOD_MS / 1000.);
+		double speed = speedProfile.getSpeed(odometry
+				.getOdometer() % Constants.CIRCUIT_SIZE);
+
+		/* Communicate */
+		if (tick % (Constants.COORDINATES_PERIOD_MS / Constants.CONTROL_PERIOD_MS) == 0) {
+			coordinates.set(CAR_ID, speed + turn, 0.3 + color,
+					odometry.getPosition(), odometry.getPosition() / 360,
+					odometry.getMarks());
+			batcher.add(LEADER_ID, allocate ? new Message(Opcode.COORDINATES,
+					coordinates) : coordinatesMessage);
+			batcher.flush();
+		}
+	}
+
+	/**
+	 * What the network thread and getNewMessages do for a speed order
+	 */
+	private void receive() {
+		speedPacket.position(0);
+		if (!receiver.decodeHeader(speedPacket, frame)) {
+			return;
+		}
+		Message content = messagePool.acquire();
+		receiver.decodeMessage(speedPacket, content);
+		Message replaced = mailbox.offer(content);
+		if (replaced != null) {
+			messagePool.recycle(replaced);
+		}
+		Message m = mailbox.poll();
+		if (m != null) {
+			messagePool.release(m);
+		}
+	}
+}
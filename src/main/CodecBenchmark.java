@@ -0,0 +1,137 @@
+package main;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+
+import network.MessageCodec;
+import utils.CarsBehavior;
+import utils.Constants;
+import utils.Message;
+import utils.MessageDatagram;
+import utils.Opcode;
+
+/**
+ * CodecBenchmark class
+ *
+ * <p>Compares the {@link MessageCodec} with the Java serialization of a
+ * {@link MessageDatagram} it replaced : encode and decode time, and bytes
+ * per packet, for the messages the robots exchange the most. Runs on a
+ * computer as well as on a brick, without the sensors nor the network.</p>
+ *
+ * <pre>
+ * java -cp classes main.CodecBenchmark [iterations]
+ * </pre>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ */
+public class CodecBenchmark {
+
+	private final static int FROM = 11;
+	private final static int TO = 10;
+
+	private final MessageCodec encoder = new MessageCodec();
+	private final MessageCodec decoder = new MessageCodec();
+	private final ByteBuffer buffer = ByteBuffer.allocate(Constants.PACKET_SIZE);
+	private final MessageDatagram header = new MessageDatagram();
+	private final Message decoded = new Message();
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		CodecBenchmark benchmark = new CodecBenchmark();
+
+		TreeMap<Integer, CarsBehavior> cars = new TreeMap<>();
+		for (int id = 11; id <= 13; id++) {
+			cars.put(id, new CarsBehavior(id, 40, 0.3, 1200 + id, 3, 2));
+		}
+		Message[] messages = {
+				new Message(Opcode.SPEED, 40.),
+				new Message(Opcode.TRAIN_IN_CROSSING, null),
+				new Message(Opcode.COORDINATES, new CarsBehavior(12, 40, 0.3,
+						1250, 3, 2)),
+				new Message(Opcode.CARS_MAP, cars) };
+		messages[0].setNumber(40);
+
+		System.out.println("Bytes per packet, nanoseconds per packet, "
+				+ iterations + " packets");
+		System.out.println(String.format("%-18s %9s %9s %9s %9s %9s %9s",
+				"message", "java B", "java enc", "java dec", "codec B",
+				"codec enc", "codec dec"));
+		for (Message message : messages) {
+			/* Twice : the first round warms the JIT up */
+			benchmark.run(message, iterations, false);
+			benchmark.run(message, iterations, true);
+		}
+	}
+
+	/**
+	 * Measure both encodings of a message
+	 * @param message to encode and decode
+	 * @param iterations : number of packets of each encoding
+	 * @param print : print the results
+	 */
+	private void run(Message message, int iterations, boolean print)
+			throws IOException, ClassNotFoundException {
+		/* Java serialization, as sendMessage and receiveMessage did */
+		MessageDatagram datagram = new MessageDatagram(FROM, TO, message);
+		byte[] serialized = null;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+					Constants.PACKET_SIZE);
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(datagram);
+			out.flush();
+			serialized = bytes.toByteArray();
+		}
+		long javaEncode = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			ObjectInputStream in = new ObjectInputStream(
+					new ByteArrayInputStream(serialized));
+			in.readObject();
+		}
+		long javaDecode = System.nanoTime() - start;
+
+		/* Codec, one message per frame */
+		int size = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			encoder.beginFrame(buffer, FROM, TO, 0);
+			encoder.encodeMessage(TO, message, buffer);
+			encoder.endFrame(buffer, i, 1, 0);
+			size = buffer.remaining();
+		}
+		long codecEncode = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			buffer.position(0);
+			decoder.decodeHeader(buffer, header);
+			decoder.decodeMessage(buffer, decoded);
+		}
+		long codecDecode = System.nanoTime() - start;
+
+		if (decoded.getOpcode() != message.getOpcode()) {
+			throw new IllegalStateException("Decoded "
+					+ Opcode.toKey(decoded.getOpcode()) + " instead of "
+					+ Opcode.toKey(message.getOpcode()));
+		}
+		if (message.getOpcode() == Opcode.COORDINATES) {
+			/* Next rounds send deltas against the keyframe, as on the track */
+			encoder.acknowledgeKeyframe(TO, decoded.getKeyframe());
+		}
+
+		if (print) {
+			System.out.println(String.format(
+					"%-18s %9d %9.0f %9.0f %9d %9.0f %9.0f",
+					Opcode.toKey(message.getOpcode()), serialized.length,
+					(double) javaEncode / iterations, (double) javaDecode
+							/ iterations, size, (double) codecEncode
+							/ iterations, (double) codecDecode / iterations));
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package main;
+
+import java.io.IOException;
+
+import network.LoopbackNetwork;
+import network.ReliableSender;
+import robot.MessageHandler;
+import robot.Messenger;
+import utils.CarsBehavior;
+import utils.Constants;
+import utils.Message;
+import utils.Opcode;
+
+/**
+ * LoopbackSimulation class
+ *
+ * <p>Runs the messaging of two trains of three robots over a
+ * {@link LoopbackNetwork}, without the sensors nor the motors : each robot
+ * is a {@link Messenger}, as in GenericRobot, with handlers counting what
+ * they receive. Every CONTROL_PERIOD_MS, like the control loop :</p>
+ * <ul>
+ * <li>each leader sends a speed order to its train,</li>
+ * <li>the other cars send their coordinates to their leader every
+ * COORDINATES_PERIOD_MS,</li>
+ * <li>the leaders warn each other of a crossing every second, reliably.</li>
+ * </ul>
+ *
+ * <p>At the end, the latency of the speed orders (up to the tick
+ * processing them), the reliable deliveries
+ * and the bytes sent are printed.</p>
+ *
+ * <pre>
+ * java -cp classes main.LoopbackSimulation [seconds] [lossRate] [seed]
+ * </pre>
+ *
+ * <p>The seed only fixes the losses, jitters and reorderings drawn, see
+ * {@link LoopbackNetwork}.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ */
+public class LoopbackSimulation {
+
+	/* Number of ticks between two crossing warnings */
+	private final static int CROSSING_TICKS = 50;
+
+	/**
+	 * Messaging of one robot
+	 */
+	private static class Station {
+		private final int carId;
+		private final long origin;
+
+		/* Same receiving, acknowledging and dispatching path as the robots */
+		private final Messenger messenger = new Messenger();
+
+		/* Messages sent, allocated once */
+		private final Message speed = new Message(Opcode.SPEED, null);
+		private final Message warning = new Message(
+				Opcode.TRAIN_IN_CROSSING, null);
+		private final CarsBehavior behavior;
+		private final Message coordinates;
+
+		/* Processed by the robot side */
+		private long speedOrders = 0;
+		private double latencySum = 0;
+		private double latencyMax = 0;
+		private long coordinatesReceived = 0;
+		private long warningsReceived = 0;
+
+		Station(LoopbackNetwork network, int carId, long origin)
+				throws IOException {
+			this.carId = carId;
+			this.origin = origin;
+			behavior = new CarsBehavior(carId, 40, 0.3, 0, 0, 0);
+			coordinates = new Message(Opcode.COORDINATES, behavior);
+			registerHandlers();
+			messenger.open(carId, network.createTransport(
+					Constants.SEND_QUEUE_SIZE, messenger));
+		}
+
+		boolean isLeader() {
+			return carId % 10 == 1;
+		}
+
+		/**
+		 * Handlers of the messages counted, registered as a robot does
+		 */
+		private void registerHandlers() {
+			messenger.registerHandler(Opcode.SPEED, new MessageHandler() {
+				@Override
+				public void handle(Message m) {
+					/* The speed order carries the time it was sent */
+					double latency = (System.nanoTime() - origin) / 1000.
+							- m.getNumber();
+					latencySum += latency;
+					latencyMax = Math.max(latencyMax, latency);
+					speedOrders++;
+				}
+			});
+			if (!isLeader()) {
+				return;
+			}
+			messenger.registerHandler(Opcode.COORDINATES, new MessageHandler() {
+				@Override
+				public void handle(Message m) {
+					coordinatesReceived++;
+				}
+			});
+			messenger.registerHandler(Opcode.TRAIN_IN_CROSSING,
+					new MessageHandler() {
+						@Override
+						public void handle(Message m) {
+							warningsReceived++;
+						}
+					});
+		}
+
+		/**
+		 * One iteration of the robot thread
+		 * @param tick : number of the iteration
+		 */
+		void tick(int tick) {
+			messenger.getNewMessages();
+
+			if (isLeader()) {
+				speed.setNumber((System.nanoTime() - origin) / 1000.);
+				messenger.sendMessage(carId / 10 * 10, speed);
+				if (tick % CROSSING_TICKS == 0) {
+					messenger.sendMessage(carId / 10 == 1 ? 21 : 11, warning);
+				}
+			} else if (tick % (Constants.COORDINATES_PERIOD_MS
+					/ Constants.CONTROL_PERIOD_MS) == 0) {
+				behavior.setPosition(behavior.getPosition() + 60);
+				messenger.sendMessage(carId / 10 * 10 + 1, coordinates);
+			}
+
+			messenger.flushMessages();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		double lossRate = args.length > 1 ? Double.parseDouble(args[1]) : 0.1;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+		LoopbackNetwork network = new LoopbackNetwork(seed);
+		/* Wireless link : a few milliseconds, some losses and reorderings */
+		network.setDefaultLink(new LoopbackNetwork.Link(3, 1.5, lossRate,
+				0.02, 10));
+
+		long origin = System.nanoTime();
+		int[] ids = { 11, 12, 13, 21, 22, 23 };
+		Station[] stations = new Station[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			stations[i] = new Station(network, ids[i], origin);
+		}
+
+		int ticks = (int) (seconds * 1000 / Constants.CONTROL_PERIOD_MS);
+		long next = System.nanoTime();
+		for (int tick = 0; tick < ticks; tick++) {
+			for (Station station : stations) {
+				station.tick(tick);
+			}
+			next += Constants.CONTROL_PERIOD_MS * 1000000;
+			long wait = next - System.nanoTime();
+			if (wait > 0) {
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			}
+		}
+		/* Let the last packets arrive */
+		Thread.sleep(100);
+
+		System.out.println(String.format(
+				"%d robots, %d s, loss %.0f%%, seed %d", ids.length, seconds,
+				lossRate * 100, seed));
+		System.out.println(String.format(
+				"%-5s %8s %9s %9s %8s %8s %8s %9s %7s %7s", "robot",
+				"speeds", "lat avg", "lat max", "coords", "warnings",
+				"reliable", "rel avg", "retrans", "failed"));
+		for (Station s : stations) {
+			ReliableSender r = s.messenger.getReliableSender();
+			System.out.println(String.format(
+					"%-5d %8d %7.2fms %7.2fms %8d %8d %8d %7.1fms %7d %7d",
+					s.carId, s.speedOrders, s.speedOrders == 0 ? 0
+							: s.latencySum / s.speedOrders / 1000.,
+					s.latencyMax / 1000., s.coordinatesReceived,
+					s.warningsReceived, r.getDelivered(),
+					r.getAverageLatency(), r.getRetransmissions(),
+					r.getFailures()));
+		}
+		System.out.println(String.format(
+				"network : %d copies, %d bytes (%.0f B/s), %d lost, %d reordered",
+				network.getTransmitted(), network.getTransmittedBytes(),
+				network.getTransmittedBytes() / (double) seconds,
+				network.getLost(), network.getReordered()));
+		long duplicates = 0;
+		long dropped = 0;
+		for (Station s : stations) {
+			duplicates += s.messenger.getDuplicates();
+			dropped += s.messenger.getDroppedMessages()
+					+ s.messenger.getUnsentMessages();
+		}
+		System.out.println(String.format(
+				"copies dropped as duplicates : %d, messages dropped : %d",
+				duplicates, dropped));
+	}
+}
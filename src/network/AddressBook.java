@@ -0,0 +1,117 @@
+package network;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import utils.Constants;
+
+/**
+ * AddressBook class
+ *
+ * <p>Gives the address where the packets for a car or a train are sent:</p>
+ * <ul>
+ * <li>each train has its own multicast group, joined by all its cars,</li>
+ * <li>the leaders share another group, for the messages between trains,</li>
+ * <li>a car of the same train is reached directly once its address has been
+ * learned from its packets, if unicast is enabled.</li>
+ * </ul>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class AddressBook {
+
+	private final int carId;
+	private boolean unicast = Constants.UNICAST_ENABLED;
+
+	/* Multicast groups, indexed by train number */
+	private final SocketAddress[] trainGroups = new SocketAddress[Constants.MAX_CAR_ID / 10];
+	private final SocketAddress leadersGroup;
+
+	/* Addresses of the cars, learned from the packets they send */
+	private final AtomicReferenceArray<SocketAddress> cars = new AtomicReferenceArray<>(
+			Constants.MAX_CAR_ID);
+
+	/**
+	 * Constructor
+	 * @param carId : id of the robot
+	 * @throws UnknownHostException if a group address is not valid
+	 */
+	public AddressBook(int carId) throws UnknownHostException {
+		this.carId = carId;
+		for (int train = 0; train < trainGroups.length; train++) {
+			trainGroups[train] = new InetSocketAddress(trainGroup(train),
+					Constants.SOCKET_NUMBER);
+		}
+		leadersGroup = new InetSocketAddress(leadersGroup(),
+				Constants.SOCKET_NUMBER);
+	}
+
+	/**
+	 * Multicast group of a train
+	 * @param trainNumber : number of the train
+	 * @throws UnknownHostException
+	 */
+	public static InetAddress trainGroup(int trainNumber)
+			throws UnknownHostException {
+		return InetAddress.getByName(Constants.MULTICAST_PREFIX + trainNumber);
+	}
+
+	/**
+	 * Multicast group shared by the leaders
+	 * @throws UnknownHostException
+	 */
+	public static InetAddress leadersGroup() throws UnknownHostException {
+		return InetAddress.getByName(Constants.MULTICAST_PREFIX
+				+ Constants.LEADERS_GROUP);
+	}
+
+	/**
+	 * Remember the address of a car (network thread)
+	 * @param from : id of the car
+	 * @param address the car sent a packet from
+	 */
+	public void learn(int from, SocketAddress address) {
+		if (from >= 0 && from < Constants.MAX_CAR_ID && from % 10 != 0
+				&& address != null && !address.equals(cars.get(from))) {
+			cars.set(from, address);
+		}
+	}
+
+	/**
+	 * Address where the packets for a car or a train are sent
+	 * @param to : id of the car, or of the train (10*trainNumber)
+	 * @return the address
+	 */
+	public SocketAddress resolve(int to) {
+		int train = to / 10;
+		if (to % 10 == 0) {
+			/* Whole train */
+			return trainGroups[train];
+		}
+		if (train == carId / 10) {
+			/* Car of my train, directly if we know where it is */
+			SocketAddress address = cars.get(to);
+			if (unicast && address != null) {
+				return address;
+			}
+			return trainGroups[train];
+		}
+		if (to % 10 == 1 && carId % 10 == 1) {
+			/* From a leader to the other leader */
+			return leadersGroup;
+		}
+		return trainGroups[train];
+	}
+
+	/**
+	 * Send point-to-point orders directly to the car, instead of its train
+	 * @param unicast : true to enable
+	 */
+	public void setUnicast(boolean unicast) {
+		this.unicast = unicast;
+	}
+}
@@ -0,0 +1,283 @@
+package network;
+
+import java.nio.ByteBuffer;
+
+import utils.CarsBehavior;
+import utils.Constants;
+
+/**
+ * BehaviorCoder class
+ *
+ * <p>Compact encoding of the coordinates of a car. Each field is quantized
+ * to a resolution which still makes sense physically:</p>
+ * <ul>
+ * <li>speed : 0.1 percent of the maximum speed,</li>
+ * <li>distance : 1 mm, anything beyond DISTANCE_MAX (no car in sight) is
+ * decoded as infinity,</li>
+ * <li>position : 1 tacho degree,</li>
+ * <li>number of orange marks.</li>
+ * </ul>
+ * <p>The spin is not sent, it is always position / 360.</p>
+ *
+ * <p>Coordinates sent to a robot are encoded against the last keyframe this
+ * robot acknowledged : only the fields which changed are sent, as
+ * differences. A new keyframe (every field, in full) is sent every
+ * KEYFRAME_INTERVAL updates, and until the first one is acknowledged.
+ * A lost delta never breaks the next ones, and a robot missing the keyframe
+ * drops the deltas until the next one.</p>
+ *
+ * <pre>
+ * byte    id of the car
+ * byte    flags : KEYFRAME, or the mask of the fields sent
+ * byte    keyframe number
+ * varint  fields (keyframe) or differences (delta), zigzag encoded
+ * </pre>
+ *
+ * <p>Encoding is done by the robot thread, decoding by the network thread.
+ * Each side only uses its own arrays.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class BehaviorCoder {
+
+	/* Resolution of the quantized fields */
+	public final static double SPEED_STEP = 0.1;
+	public final static double DISTANCE_STEP = 0.001;
+	public final static int DISTANCE_MAX = 0xFFFF;
+
+	/* Quantized fields */
+	private final static int SPEED = 0;
+	private final static int DISTANCE = 1;
+	private final static int POSITION = 2;
+	private final static int ORANGE = 3;
+	private final static int FIELDS = 4;
+
+	/* Flag of a keyframe, instead of the mask of the fields */
+	private final static int KEYFRAME = 0x80;
+	/* Keyframe numbers go from 1 to MAX_KEYFRAME, 0 means none */
+	private final static int MAX_KEYFRAME = 127;
+	/* Number of keyframes kept by the receiver for each sender */
+	private final static int HISTORY = 4;
+
+	/* Encoder, indexed by destination */
+	private final int[] ackedKeyframe = new int[Constants.MAX_CAR_ID];
+	private final int[][] acked = new int[Constants.MAX_CAR_ID][FIELDS];
+	private final int[] sentKeyframe = new int[Constants.MAX_CAR_ID];
+	private final int[][] sent = new int[Constants.MAX_CAR_ID][FIELDS];
+	private final int[] sinceKeyframe = new int[Constants.MAX_CAR_ID];
+	private final int[] encoded = new int[FIELDS];
+
+	/* Decoder, indexed by sender, rows are created on first contact */
+	private final int[][] keyframeNumbers = new int[Constants.MAX_CAR_ID][];
+	private final int[][][] keyframes = new int[Constants.MAX_CAR_ID][][];
+	private final int[] decoded = new int[FIELDS];
+
+	/* Statistics */
+	private long keyframesSent = 0;
+	private long deltasSent = 0;
+	private volatile long missingKeyframes = 0;
+
+	public BehaviorCoder() {
+
+	}
+
+	/**
+	 * Encode the coordinates sent to a robot (robot thread only)
+	 * @param to : destination of the coordinates
+	 * @param behavior to encode
+	 * @param out : buffer receiving the coordinates
+	 */
+	public void encode(int to, CarsBehavior behavior, ByteBuffer out) {
+		quantize(behavior, encoded);
+		out.put((byte) behavior.getId());
+
+		if (ackedKeyframe[to] == 0
+				|| sinceKeyframe[to] >= Constants.KEYFRAME_INTERVAL) {
+			int keyframe = sentKeyframe[to] % MAX_KEYFRAME + 1;
+			sentKeyframe[to] = keyframe;
+			System.arraycopy(encoded, 0, sent[to], 0, FIELDS);
+			sinceKeyframe[to] = 0;
+
+			out.put((byte) KEYFRAME);
+			out.put((byte) keyframe);
+			for (int f = 0; f < FIELDS; f++) {
+				putVarint(out, encoded[f]);
+			}
+			keyframesSent++;
+			return;
+		}
+
+		int[] reference = acked[to];
+		int mask = 0;
+		for (int f = 0; f < FIELDS; f++) {
+			if (encoded[f] != reference[f]) {
+				mask |= 1 << f;
+			}
+		}
+		out.put((byte) mask);
+		out.put((byte) ackedKeyframe[to]);
+		for (int f = 0; f < FIELDS; f++) {
+			if ((mask & (1 << f)) != 0) {
+				putVarint(out, encoded[f] - reference[f]);
+			}
+		}
+		sinceKeyframe[to]++;
+		deltasSent++;
+	}
+
+	/**
+	 * A robot acknowledged a keyframe, the next deltas are encoded against
+	 * it (robot thread only)
+	 * @param from : robot which received the keyframe
+	 * @param keyframe : number of the keyframe
+	 */
+	public void acknowledge(int from, int keyframe) {
+		if (from < 0 || from >= Constants.MAX_CAR_ID) {
+			return;
+		}
+		/* An older keyframe is not kept anymore */
+		if (keyframe != 0 && keyframe == sentKeyframe[from]) {
+			ackedKeyframe[from] = keyframe;
+			System.arraycopy(sent[from], 0, acked[from], 0, FIELDS);
+		}
+	}
+
+	/**
+	 * Decode coordinates (network thread only)
+	 * @param in : buffer positioned at the coordinates
+	 * @param behavior receiving the coordinates
+	 * @return the keyframe number if this was a keyframe, 0 for a delta,
+	 * -1 if the keyframe of the delta is not known
+	 */
+	public int decode(ByteBuffer in, CarsBehavior behavior) {
+		int from = in.get();
+		int flags = in.get() & 0xFF;
+		int keyframe = in.get();
+		if (from < 0 || from >= Constants.MAX_CAR_ID || keyframe <= 0) {
+			missingKeyframes++;
+			return -1;
+		}
+		if (keyframes[from] == null) {
+			keyframeNumbers[from] = new int[HISTORY];
+			keyframes[from] = new int[HISTORY][FIELDS];
+		}
+		int slot = keyframe % HISTORY;
+		int[] reference = keyframes[from][slot];
+
+		if (flags == KEYFRAME) {
+			for (int f = 0; f < FIELDS; f++) {
+				reference[f] = getVarint(in);
+			}
+			keyframeNumbers[from][slot] = keyframe;
+			restore(from, reference, behavior);
+			return keyframe;
+		}
+
+		/* The differences are read even if they cannot be used */
+		for (int f = 0; f < FIELDS; f++) {
+			decoded[f] = (flags & (1 << f)) != 0 ? getVarint(in) : 0;
+		}
+		if (keyframeNumbers[from][slot] != keyframe) {
+			missingKeyframes++;
+			return -1;
+		}
+		for (int f = 0; f < FIELDS; f++) {
+			decoded[f] += reference[f];
+		}
+		restore(from, decoded, behavior);
+		return 0;
+	}
+
+	/**
+	 * Encode all fields of coordinates, without any reference, and the
+	 * age of the measure
+	 * @param behavior to encode
+	 * @param now : local time
+	 * @param out : buffer receiving the coordinates
+	 */
+	public void encodeFull(CarsBehavior behavior, long now, ByteBuffer out) {
+		quantize(behavior, encoded);
+		out.put((byte) behavior.getId());
+		for (int f = 0; f < FIELDS; f++) {
+			putVarint(out, encoded[f]);
+		}
+		putVarint(out, behavior.getTimestamp() == 0 ? -1
+				: (int) Math.min(behavior.getAge(now), Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Decode coordinates written by encodeFull
+	 * @param in : buffer positioned at the coordinates
+	 * @param sent : time the frame was sent, on the clock of the sender
+	 * @param behavior receiving the coordinates, with the time of the
+	 * 	measure on the clock of the sender
+	 */
+	public void decodeFull(ByteBuffer in, long sent, CarsBehavior behavior) {
+		int id = in.get();
+		for (int f = 0; f < FIELDS; f++) {
+			decoded[f] = getVarint(in);
+		}
+		int age = getVarint(in);
+		restore(id, decoded, behavior);
+		behavior.setTimestamp(age < 0 ? 0 : sent - age);
+	}
+
+	/**
+	 * Number of keyframes and deltas sent
+	 */
+	public long getKeyframesSent() {
+		return keyframesSent;
+	}
+
+	public long getDeltasSent() {
+		return deltasSent;
+	}
+
+	/**
+	 * Number of deltas dropped because their keyframe was not received
+	 */
+	public long getMissingKeyframes() {
+		return missingKeyframes;
+	}
+
+	private static void quantize(CarsBehavior behavior, int[] fields) {
+		fields[SPEED] = (int) Math.round(behavior.getSpeed() / SPEED_STEP);
+		double distance = behavior.getDistance() / DISTANCE_STEP;
+		fields[DISTANCE] = distance >= DISTANCE_MAX || Double.isNaN(distance)
+				? DISTANCE_MAX : (int) Math.round(Math.max(distance, 0));
+		fields[POSITION] = (int) Math.round(behavior.getPosition());
+		fields[ORANGE] = behavior.getOrangeNumber();
+	}
+
+	private static void restore(int id, int[] fields, CarsBehavior behavior) {
+		double distance = fields[DISTANCE] >= DISTANCE_MAX ? Double.POSITIVE_INFINITY
+				: fields[DISTANCE] * DISTANCE_STEP;
+		behavior.set(id, fields[SPEED] * SPEED_STEP, distance,
+				fields[POSITION], fields[POSITION] / 360., fields[ORANGE]);
+	}
+
+	/**
+	 * Write a signed integer in 1 to 5 bytes, small values being the shortest
+	 */
+	private static void putVarint(ByteBuffer out, int value) {
+		int zigzag = (value << 1) ^ (value >> 31);
+		while ((zigzag & ~0x7F) != 0) {
+			out.put((byte) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		out.put((byte) zigzag);
+	}
+
+	private static int getVarint(ByteBuffer in) {
+		int zigzag = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.get();
+			zigzag |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0 && shift < 35);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+}
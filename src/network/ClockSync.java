@@ -0,0 +1,166 @@
+package network;
+
+import utils.Constants;
+
+/**
+ * ClockSync class
+ *
+ * <p>Estimates the clock of the other robots, NTP style. A leader sends a
+ * timeRequest to each peer, which answers with a timeResponse. With the
+ * four times of the exchange :</p>
+ * <pre>
+ * t0 : request sent (local clock)     t1 : request received (peer clock)
+ * t2 : response sent (peer clock)     t3 : response received (local clock)
+ *
+ * offset = ((t1 - t0) + (t2 - t3)) / 2     peer clock - local clock
+ * delay  = (t3 - t0) - (t2 - t1)           round trip on the network
+ * </pre>
+ *
+ * <p>Of the last SAMPLES exchanges, the one with the smallest delay gives
+ * the offset : it is the least affected by queues and retransmissions.
+ * The drift is the slope of the offset between estimates at least
+ * DRIFT_INTERVAL_MS apart.</p>
+ *
+ * <p>Only used by the robot thread.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class ClockSync {
+
+	/* Number of exchanges kept for each peer */
+	public final static int SAMPLES = 8;
+	/* Minimum time between two points of the drift, in milliseconds */
+	public final static long DRIFT_INTERVAL_MS = 30000;
+
+	/* Last exchanges of each peer : local time, offset and delay */
+	private final long[][] sampleTime = new long[Constants.MAX_CAR_ID][SAMPLES];
+	private final double[][] sampleOffset = new double[Constants.MAX_CAR_ID][SAMPLES];
+	private final long[][] sampleDelay = new long[Constants.MAX_CAR_ID][SAMPLES];
+	private final int[] samples = new int[Constants.MAX_CAR_ID];
+
+	/* Estimate : offset at a local time, and drift in ms per ms */
+	private final double[] offset = new double[Constants.MAX_CAR_ID];
+	private final long[] offsetTime = new long[Constants.MAX_CAR_ID];
+	private final long[] delay = new long[Constants.MAX_CAR_ID];
+	private final double[] drift = new double[Constants.MAX_CAR_ID];
+	private final boolean[] driftValid = new boolean[Constants.MAX_CAR_ID];
+
+	/* Reference point of the drift */
+	private final double[] referenceOffset = new double[Constants.MAX_CAR_ID];
+	private final long[] referenceTime = new long[Constants.MAX_CAR_ID];
+
+	/* Time of the last requests */
+	private long lastRequest = 0;
+
+	public ClockSync() {
+
+	}
+
+	/**
+	 * Check if it is time to send the next requests
+	 * @param now : local time
+	 * @return true once every CLOCK_SYNC_PERIOD_MS
+	 */
+	public boolean isDue(long now) {
+		if (now - lastRequest < Constants.CLOCK_SYNC_PERIOD_MS) {
+			return false;
+		}
+		lastRequest = now;
+		return true;
+	}
+
+	/**
+	 * Add the result of an exchange with a peer
+	 * @param peer : id of the robot which answered
+	 * @param t0 : request sent, local clock
+	 * @param t1 : request received, peer clock
+	 * @param t2 : response sent, peer clock
+	 * @param t3 : response received, local clock
+	 */
+	public void sample(int peer, long t0, long t1, long t2, long t3) {
+		if (peer < 0 || peer >= Constants.MAX_CAR_ID) {
+			return;
+		}
+		long roundTrip = (t3 - t0) - (t2 - t1);
+		if (roundTrip < 0 || t3 < t0) {
+			/* Inconsistent times, the response does not match the request */
+			return;
+		}
+		int index = samples[peer] % SAMPLES;
+		sampleTime[peer][index] = t0 + (t3 - t0) / 2;
+		sampleOffset[peer][index] = ((t1 - t0) + (t2 - t3)) / 2.;
+		sampleDelay[peer][index] = roundTrip;
+		samples[peer]++;
+
+		/* Exchange with the smallest delay */
+		int best = 0;
+		int count = Math.min(samples[peer], SAMPLES);
+		for (int i = 1; i < count; i++) {
+			if (sampleDelay[peer][i] < sampleDelay[peer][best]) {
+				best = i;
+			}
+		}
+		offset[peer] = sampleOffset[peer][best];
+		offsetTime[peer] = sampleTime[peer][best];
+		delay[peer] = sampleDelay[peer][best];
+
+		if (referenceTime[peer] == 0) {
+			referenceTime[peer] = offsetTime[peer];
+			referenceOffset[peer] = offset[peer];
+		} else if (offsetTime[peer] - referenceTime[peer] >= DRIFT_INTERVAL_MS) {
+			double slope = (offset[peer] - referenceOffset[peer])
+					/ (offsetTime[peer] - referenceTime[peer]);
+			drift[peer] = driftValid[peer] ? drift[peer] + (slope - drift[peer]) / 4
+					: slope;
+			driftValid[peer] = true;
+			referenceTime[peer] = offsetTime[peer];
+			referenceOffset[peer] = offset[peer];
+		}
+	}
+
+	/**
+	 * Convert a time read on the clock of a peer to the local clock
+	 * @param peer : id of the robot
+	 * @param remoteTime : time on the clock of the peer
+	 * @return the same time on the local clock, or remoteTime if the clock
+	 * 	of the peer has not been estimated yet : check isSynchronized first
+	 */
+	public long toLocal(int peer, long remoteTime) {
+		if (!isSynchronized(peer)) {
+			return remoteTime;
+		}
+		double local = remoteTime - offset[peer];
+		double peerOffset = offset[peer] + drift[peer] * (local - offsetTime[peer]);
+		return Math.round(remoteTime - peerOffset);
+	}
+
+	/**
+	 * Check if the clock of a peer has been estimated
+	 */
+	public boolean isSynchronized(int peer) {
+		return peer >= 0 && peer < Constants.MAX_CAR_ID && samples[peer] > 0;
+	}
+
+	/**
+	 * Clock of a peer minus the local clock, in milliseconds
+	 */
+	public double getOffset(int peer) {
+		return offset[peer];
+	}
+
+	/**
+	 * Drift of the clock of a peer, in milliseconds per millisecond
+	 */
+	public double getDrift(int peer) {
+		return drift[peer];
+	}
+
+	/**
+	 * Round trip of the exchange used for the offset, in milliseconds. The
+	 * offset is known within half of it.
+	 */
+	public long getDelay(int peer) {
+		return delay[peer];
+	}
+}
@@ -0,0 +1,179 @@
+package network;
+
+import utils.Constants;
+
+/**
+ * DuplicateFilter class
+ *
+ * <p>Drops the redundant copies of the messages using their sequence
+ * numbers. Each (sender, receiver) stream keeps the highest sequence number
+ * received and a 64 bits sliding window, where bit i tells if the message
+ * highest - i has already been received. Checking a message is O(1), and a
+ * message arriving out of order is still accepted once.</p>
+ *
+ * <p>The senders number their frames from the clock, so a sequence number
+ * far ahead of the window means the sender has restarted : the stream
+ * starts again from it. A sequence number far behind the window is a stale
+ * copy, delayed longer than the window covers : it is dropped.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class DuplicateFilter {
+
+	/* Number of messages covered by the window */
+	public final static int WINDOW_SIZE = 64;
+
+	/* Streams, indexed by [from][to], rows are created on first contact */
+	private final int[][] highest = new int[Constants.MAX_CAR_ID][];
+	private final long[][] window = new long[Constants.MAX_CAR_ID][];
+
+	/* Statistics */
+	private volatile long accepted = 0;
+	private volatile long duplicates = 0;
+	private volatile long reorders = 0;
+	private volatile long gaps = 0;
+	private volatile long restarts = 0;
+	private volatile long stale = 0;
+
+	public DuplicateFilter() {
+
+	}
+
+	/**
+	 * Check if a message is received for the first time (network thread only)
+	 * @param from : sender of the message
+	 * @param to : receiver of the message (car or train)
+	 * @param sequence : sequence number of the message on this stream
+	 * @return false if the message has already been received
+	 */
+	public boolean accept(int from, int to, int sequence) {
+		if (from < 0 || from >= Constants.MAX_CAR_ID || to < 0
+				|| to >= Constants.MAX_CAR_ID) {
+			return false;
+		}
+		if (highest[from] == null) {
+			highest[from] = new int[Constants.MAX_CAR_ID];
+			window[from] = new long[Constants.MAX_CAR_ID];
+		}
+
+		int last = highest[from][to];
+		if (last == 0) {
+			/* First message of the stream */
+			highest[from][to] = sequence;
+			window[from][to] = 1;
+			accepted++;
+			return true;
+		}
+
+		if (sequence > last) {
+			/* Newer message, slide the window */
+			int shift = sequence - last;
+			if (shift >= WINDOW_SIZE) {
+				/* Far ahead of the window : the sender has restarted */
+				window[from][to] = 1;
+				restarts++;
+			} else {
+				window[from][to] = (window[from][to] << shift) | 1;
+				gaps += shift - 1;
+			}
+			highest[from][to] = sequence;
+			accepted++;
+			return true;
+		}
+
+		int offset = last - sequence;
+		if (offset >= WINDOW_SIZE) {
+			/* Far behind the window : too old to tell, drop it */
+			stale++;
+			return false;
+		}
+
+		long bit = 1L << offset;
+		if ((window[from][to] & bit) != 0) {
+			duplicates++;
+			return false;
+		}
+
+		/* Older message received after a newer one, it fills a gap */
+		window[from][to] |= bit;
+		reorders++;
+		gaps--;
+		accepted++;
+		return true;
+	}
+
+	/**
+	 * Check if accept would drop a message, without marking it as received,
+	 * and count it the same way (network thread only)
+	 * @param from : sender of the message
+	 * @param to : receiver of the message (car or train)
+	 * @param sequence : sequence number of the message on this stream
+	 * @return true if the message has already been received, or is stale
+	 */
+	public boolean isDropped(int from, int to, int sequence) {
+		if (from < 0 || from >= Constants.MAX_CAR_ID || to < 0
+				|| to >= Constants.MAX_CAR_ID) {
+			return true;
+		}
+		if (highest[from] == null) {
+			return false;
+		}
+		int last = highest[from][to];
+		if (last == 0 || sequence > last) {
+			return false;
+		}
+		int offset = last - sequence;
+		if (offset >= WINDOW_SIZE) {
+			stale++;
+			return true;
+		}
+		if ((window[from][to] & (1L << offset)) != 0) {
+			duplicates++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Number of distinct messages accepted
+	 */
+	public long getAccepted() {
+		return accepted;
+	}
+
+	/**
+	 * Number of copies dropped because the message was already received
+	 */
+	public long getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Number of messages received after a newer message of the same stream
+	 */
+	public long getReorders() {
+		return reorders;
+	}
+
+	/**
+	 * Number of messages skipped by the sequence numbers and never received
+	 */
+	public long getGaps() {
+		return gaps;
+	}
+
+	/**
+	 * Number of times a stream was reset because the sender restarted
+	 */
+	public long getRestarts() {
+		return restarts;
+	}
+
+	/**
+	 * Number of messages dropped because they were older than the window
+	 */
+	public long getStale() {
+		return stale;
+	}
+}
@@ -0,0 +1,127 @@
+package network;
+
+import utils.Constants;
+
+/**
+ * LinkQuality class
+ *
+ * <p>Estimates the packet loss rate of the link with every other robot.</p>
+ *
+ * <p>Each message carries a sequence number, counted separately for every
+ * (sender, receiver) pair, and the number of copies sent by the robot. Once
+ * a newer message arrives on the same stream, the copies of the previous
+ * one that never arrived are counted as lost, as well as every copy of the
+ * messages skipped by the sequence number. The loss rate of a peer is an
+ * exponentially decaying ratio of lost packets over expected packets.</p>
+ *
+ * <p>Links are assumed to be symmetric: the loss measured on the packets
+ * received from a robot is used as the loss of the packets sent to it.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class LinkQuality {
+
+	/* Weight of the past packets at each new message */
+	private final static double DECAY = 0.95;
+	/* Gaps larger than this are considered as a restart of the sender */
+	private final static int MAX_GAP = 16;
+
+	/* Streams, indexed by [from][to], rows are created on first contact */
+	private final int[][] lastSequence = new int[Constants.MAX_CAR_ID][];
+	private final int[][] lastCopies = new int[Constants.MAX_CAR_ID][];
+	private final int[][] receivedCopies = new int[Constants.MAX_CAR_ID][];
+
+	/* Decaying packet counts of each peer, only used by the network thread */
+	private final double[] expected = new double[Constants.MAX_CAR_ID];
+	private final double[] lost = new double[Constants.MAX_CAR_ID];
+
+	/* Published estimates, read by the robot's thread */
+	private final double[] lossRate = new double[Constants.MAX_CAR_ID];
+	private volatile int version = 0;
+
+	public LinkQuality() {
+		for (int i = 0; i < lossRate.length; i++) {
+			lossRate[i] = -1;
+		}
+	}
+
+	/**
+	 * Account for a received packet (network thread only)
+	 * @param from : sender of the packet
+	 * @param to : receiver of the packet (car or train)
+	 * @param sequence : sequence number of the message on this stream
+	 * @param copies : number of times the message was sent
+	 */
+	public void observe(int from, int to, int sequence, int copies) {
+		if (from < 0 || from >= Constants.MAX_CAR_ID || to < 0
+				|| to >= Constants.MAX_CAR_ID || copies <= 0) {
+			return;
+		}
+		if (lastSequence[from] == null) {
+			lastSequence[from] = new int[Constants.MAX_CAR_ID];
+			lastCopies[from] = new int[Constants.MAX_CAR_ID];
+			receivedCopies[from] = new int[Constants.MAX_CAR_ID];
+		}
+
+		int last = lastSequence[from][to];
+		if (sequence == last) {
+			/* Another copy of the current message */
+			receivedCopies[from][to]++;
+			return;
+		}
+		if (sequence < last && last - sequence < MAX_GAP) {
+			/* Late copy of a message already accounted for */
+			return;
+		}
+
+		if (last != 0 && sequence > last && sequence - last <= MAX_GAP) {
+			/* Copies of the previous message which never arrived */
+			int missing = lastCopies[from][to] - receivedCopies[from][to];
+			account(from, lastCopies[from][to], Math.max(missing, 0));
+			/* Messages never received at all */
+			for (int s = last + 1; s < sequence; s++) {
+				account(from, lastCopies[from][to], lastCopies[from][to]);
+			}
+			publish(from);
+		}
+
+		lastSequence[from][to] = sequence;
+		lastCopies[from][to] = copies;
+		receivedCopies[from][to] = 1;
+	}
+
+	private void account(int peer, int sent, int missing) {
+		expected[peer] = expected[peer] * DECAY + sent;
+		lost[peer] = lost[peer] * DECAY + missing;
+	}
+
+	private void publish(int peer) {
+		lossRate[peer] = expected[peer] > 0 ? lost[peer] / expected[peer] : 0;
+		version++;
+	}
+
+	/**
+	 * Loss rate of the packets sent to a car or a train
+	 *
+	 * <p>For a train, the worst link among its known cars is used.</p>
+	 *
+	 * @param to : id of the car, or of the train (10*trainNumber)
+	 * @return the estimated loss rate, between 0 and 1
+	 */
+	public double lossTo(int to) {
+		/* Reading the version makes the last published estimates visible */
+		if (version == 0 || to < 0 || to >= Constants.MAX_CAR_ID) {
+			return Constants.DEFAULT_LOSS_RATE;
+		}
+		if (to % 10 != 0) {
+			return lossRate[to] < 0 ? Constants.DEFAULT_LOSS_RATE : lossRate[to];
+		}
+
+		double worst = -1;
+		for (int id = to + 1; id < to + 10 && id < Constants.MAX_CAR_ID; id++) {
+			worst = Math.max(worst, lossRate[id]);
+		}
+		return worst < 0 ? Constants.DEFAULT_LOSS_RATE : worst;
+	}
+}
@@ -0,0 +1,327 @@
+package network;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import utils.Constants;
+
+/**
+ * LoopbackNetwork class
+ *
+ * <p>Simulated network connecting {@link LoopbackTransport}s in the same JVM,
+ * so the protocol can be run and measured without the robots. Each link
+ * (sender, receiver) has its own {@link Link} : delay, jitter, loss rate
+ * and reordering. Multicast groups work as on the real network, the sender
+ * receiving its own packets too.</p>
+ *
+ * <p>Packets are delivered by a single thread, in the order of their
+ * arrival time, so each listener is only called from one thread as with
+ * the UDP transport.</p>
+ *
+ * <p>Only the random draws are reproducible : for the same seed and the
+ * same order of transmissions, the same packets are lost, held back and
+ * delayed by the same amounts. Arrival times are counted from
+ * System.nanoTime() when the packet is sent, so the actual interleaving
+ * of the deliveries with the threads of the robots, and the latencies
+ * measured, still depend on the scheduling.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class LoopbackNetwork implements Runnable {
+
+	/**
+	 * Behavior of a link between two transports
+	 */
+	public static class Link {
+		private final double delay;
+		private final double jitter;
+		private final double lossRate;
+		private final double reorderRate;
+		private final double reorderDelay;
+
+		/**
+		 * Constructor
+		 * @param delay : mean one way delay in milliseconds
+		 * @param jitter : standard deviation of the delay in milliseconds
+		 * @param lossRate : probability that a packet is lost
+		 * @param reorderRate : probability that a packet is held back
+		 * @param reorderDelay : extra delay of a packet held back, in
+		 * 	milliseconds, long enough for the next packets to overtake it
+		 */
+		public Link(double delay, double jitter, double lossRate,
+				double reorderRate, double reorderDelay) {
+			this.delay = delay;
+			this.jitter = jitter;
+			this.lossRate = lossRate;
+			this.reorderRate = reorderRate;
+			this.reorderDelay = reorderDelay;
+		}
+
+		/**
+		 * Link without loss nor reordering
+		 */
+		public Link(double delay, double jitter) {
+			this(delay, jitter, 0, 0, 0);
+		}
+	}
+
+	/**
+	 * Packet travelling on the network
+	 */
+	private static class Delivery implements Comparable<Delivery> {
+		final long arrival;
+		final long order;
+		final byte[] data;
+		final SocketAddress sender;
+		final LoopbackTransport receiver;
+
+		Delivery(long arrival, long order, byte[] data, SocketAddress sender,
+				LoopbackTransport receiver) {
+			this.arrival = arrival;
+			this.order = order;
+			this.data = data;
+			this.sender = sender;
+			this.receiver = receiver;
+		}
+
+		@Override
+		public int compareTo(Delivery other) {
+			if (arrival != other.arrival) {
+				return arrival < other.arrival ? -1 : 1;
+			}
+			return Long.compare(order, other.order);
+		}
+	}
+
+	private final Random random;
+	private Link defaultLink = new Link(2, 1);
+	private final Map<SocketAddress, Map<SocketAddress, Link>> links = new HashMap<>();
+
+	private final Map<SocketAddress, LoopbackTransport> endpoints = new HashMap<>();
+	private final Map<InetAddress, List<LoopbackTransport>> groups = new HashMap<>();
+	private int nextHost = 1;
+
+	private final PriorityQueue<Delivery> inFlight = new PriorityQueue<>();
+	private long order = 0;
+	private Thread thread;
+
+	/* Statistics */
+	private long transmitted = 0;
+	private long transmittedBytes = 0;
+	private long delivered = 0;
+	private long lost = 0;
+	private long reordered = 0;
+
+	/**
+	 * Constructor
+	 * @param seed of the random generator, the same seed gives the same
+	 * 	draws of losses, jitters and reorderings
+	 */
+	public LoopbackNetwork(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Create a transport connected to this network
+	 * @param queueSize : number of preallocated outgoing packets
+	 * @param listener receiving the incoming packets
+	 * @return the transport, with its own address
+	 */
+	public synchronized LoopbackTransport createTransport(int queueSize,
+			Transport.PacketListener listener) {
+		SocketAddress address;
+		try {
+			address = new InetSocketAddress(InetAddress.getByAddress(new byte[] {
+					127, 0, (byte) (nextHost >> 8), (byte) nextHost }),
+					Constants.SOCKET_NUMBER);
+		} catch (UnknownHostException e) {
+			/* Cannot happen with a 4 bytes address */
+			throw new IllegalStateException(e);
+		}
+		nextHost++;
+		return new LoopbackTransport(this, address, queueSize, listener);
+	}
+
+	/**
+	 * Change the link used between every pair without a link of its own
+	 */
+	public synchronized void setDefaultLink(Link link) {
+		defaultLink = link;
+	}
+
+	/**
+	 * Change the link from a transport to another one
+	 * @param from : address of the sender
+	 * @param to : address of the receiver
+	 * @param link used by the packets from the sender to the receiver
+	 */
+	public synchronized void setLink(SocketAddress from, SocketAddress to,
+			Link link) {
+		Map<SocketAddress, Link> row = links.get(from);
+		if (row == null) {
+			row = new HashMap<>();
+			links.put(from, row);
+		}
+		row.put(to, link);
+	}
+
+	/**
+	 * Connect a transport, and start the delivery thread
+	 */
+	synchronized void register(LoopbackTransport transport) {
+		endpoints.put(transport.getAddress(), transport);
+		if (thread == null) {
+			thread = new Thread(this, "loopback");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Add a transport to a multicast group
+	 */
+	synchronized void join(InetAddress group, LoopbackTransport transport) {
+		List<LoopbackTransport> members = groups.get(group);
+		if (members == null) {
+			members = new ArrayList<>();
+			groups.put(group, members);
+		}
+		if (!members.contains(transport)) {
+			members.add(transport);
+		}
+	}
+
+	/**
+	 * Send one copy of a packet
+	 * @param from : address of the sender
+	 * @param to : destination, a transport or a multicast group
+	 * @param data : content of the packet, from position to limit
+	 * @param offset : time in milliseconds before the packet leaves the
+	 * 	sender, for the spacing of the copies
+	 */
+	synchronized void transmit(SocketAddress from, SocketAddress to,
+			ByteBuffer data, long offset) {
+		transmitted++;
+		transmittedBytes += data.remaining();
+
+		InetAddress address = ((InetSocketAddress) to).getAddress();
+		if (address.isMulticastAddress()) {
+			List<LoopbackTransport> members = groups.get(address);
+			if (members != null) {
+				for (LoopbackTransport member : members) {
+					schedule(from, member, data, offset);
+				}
+			}
+		} else {
+			LoopbackTransport receiver = endpoints.get(to);
+			if (receiver != null) {
+				schedule(from, receiver, data, offset);
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Apply the link between the sender and a receiver to a packet
+	 */
+	private void schedule(SocketAddress from, LoopbackTransport receiver,
+			ByteBuffer data, long offset) {
+		Link link = defaultLink;
+		Map<SocketAddress, Link> row = links.get(from);
+		if (row != null && row.containsKey(receiver.getAddress())) {
+			link = row.get(receiver.getAddress());
+		}
+
+		if (random.nextDouble() < link.lossRate) {
+			lost++;
+			return;
+		}
+		double delay = offset + link.delay + random.nextGaussian() * link.jitter;
+		if (random.nextDouble() < link.reorderRate) {
+			delay += link.reorderDelay;
+			reordered++;
+		}
+		long arrival = System.nanoTime() + (long) (Math.max(0, delay) * 1000000);
+
+		byte[] copy = new byte[data.remaining()];
+		data.duplicate().get(copy);
+		inFlight.add(new Delivery(arrival, order++, copy, from, receiver));
+	}
+
+	/*
+	 * Delivery loop
+	 *
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			Delivery next;
+			synchronized (this) {
+				try {
+					while (true) {
+						next = inFlight.peek();
+						long now = System.nanoTime();
+						if (next == null) {
+							wait();
+						} else if (next.arrival > now) {
+							long wait = next.arrival - now;
+							wait(wait / 1000000, (int) (wait % 1000000));
+						} else {
+							inFlight.poll();
+							delivered++;
+							break;
+						}
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			/* Outside of the lock, the listener may send packets itself */
+			next.receiver.deliver(ByteBuffer.wrap(next.data), next.sender);
+		}
+	}
+
+	/**
+	 * Number of copies sent on the network, and their total size
+	 */
+	public synchronized long getTransmitted() {
+		return transmitted;
+	}
+
+	public synchronized long getTransmittedBytes() {
+		return transmittedBytes;
+	}
+
+	/**
+	 * Number of copies delivered to a transport
+	 */
+	public synchronized long getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * Number of copies lost by the links
+	 */
+	public synchronized long getLost() {
+		return lost;
+	}
+
+	/**
+	 * Number of copies held back by the links, to be received out of order
+	 */
+	public synchronized long getReordered() {
+		return reordered;
+	}
+}
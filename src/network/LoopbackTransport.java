@@ -0,0 +1,112 @@
+package network;
+
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import utils.Constants;
+import utils.RingBuffer;
+
+/**
+ * LoopbackTransport class
+ *
+ * <p>Transport of a robot connected to a {@link LoopbackNetwork}. The copies
+ * of a packet are handed to the network as soon as it is sent, spaced by
+ * COPY_SPACING_MS as with the UDP transport, and the packet is immediately
+ * available again.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class LoopbackTransport implements Transport {
+
+	private final LoopbackNetwork network;
+	private final SocketAddress address;
+	private final PacketListener listener;
+
+	/* Packets available to the robot's thread */
+	private final RingBuffer<Packet> free;
+
+	/* Statistics */
+	private volatile long sentPackets = 0;
+	private volatile long receivedPackets = 0;
+	private long droppedPackets = 0;
+
+	/**
+	 * Constructor, see {@link LoopbackNetwork#createTransport}
+	 */
+	LoopbackTransport(LoopbackNetwork network, SocketAddress address,
+			int queueSize, PacketListener listener) {
+		this.network = network;
+		this.address = address;
+		this.listener = listener;
+		free = new RingBuffer<>(queueSize);
+		for (int i = 0; i < free.capacity(); i++) {
+			free.offer(new Packet(Constants.PACKET_SIZE));
+		}
+	}
+
+	@Override
+	public void open() {
+		network.register(this);
+	}
+
+	@Override
+	public void join(InetAddress group) {
+		network.join(group, this);
+	}
+
+	@Override
+	public Packet acquire() {
+		Packet packet = free.poll();
+		if (packet == null) {
+			droppedPackets++;
+			return null;
+		}
+		packet.getBuffer().clear();
+		packet.setCopies(1);
+		return packet;
+	}
+
+	@Override
+	public void send(Packet packet) {
+		ByteBuffer data = packet.getBuffer();
+		for (int copy = 0; copy < packet.getCopies(); copy++) {
+			data.position(0);
+			network.transmit(address, packet.getDestination(), data, copy
+					* Constants.COPY_SPACING_MS);
+			sentPackets++;
+		}
+		free.offer(packet);
+	}
+
+	/**
+	 * Hand a packet to the listener (delivery thread of the network)
+	 */
+	void deliver(ByteBuffer packet, SocketAddress sender) {
+		receivedPackets++;
+		listener.onPacket(packet, sender);
+	}
+
+	/**
+	 * Address of this transport on the network
+	 */
+	public SocketAddress getAddress() {
+		return address;
+	}
+
+	@Override
+	public long getSentPackets() {
+		return sentPackets;
+	}
+
+	@Override
+	public long getReceivedPackets() {
+		return receivedPackets;
+	}
+
+	@Override
+	public long getDroppedPackets() {
+		return droppedPackets;
+	}
+}
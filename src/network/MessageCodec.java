@@ -0,0 +1,454 @@
+package network;
+
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import utils.CarsBehavior;
+import utils.Message;
+import utils.MessageDatagram;
+import utils.Opcode;
+import utils.SpeedPolynom;
+import utils.SpeedProfile;
+
+/**
+ * MessageCodec class
+ *
+ * <p>Fixed layout binary encoding of the packets exchanged between the
+ * robots, used instead of Java serialization.</p>
+ *
+ * <p>A packet is a frame holding every message produced for one destination
+ * during one iteration of the control loop. The header of the frame is
+ * described by a {@link MessageDatagram}.</p>
+ *
+ * <p>The routing fields come first, at fixed positions, so the receiver can
+ * check them with the peek functions and drop a packet which is not for it
+ * before decoding anything.</p>
+ *
+ * <pre>
+ * byte    version
+ * byte    from
+ * byte    to
+ * int     sequence number, per (from, to) pair
+ * byte    opcode of the first message
+ * byte    number of copies sent
+ * byte    number of messages
+ * long    timestamp, sender's clock when the frame is closed
+ * then, for each message :
+ * byte    opcode
+ * ...     payload, depending on the opcode
+ * </pre>
+ *
+ * <p>The messages of the crossing protocol carry an int delivery id (0 when
+ * sent best effort), acknowledged by an ack message with the same id.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class MessageCodec {
+
+	/* Version of the wire format, packets from another version are dropped */
+	public final static byte VERSION = 4;
+
+	/* Size of the header of a frame */
+	public final static int HEADER_SIZE = 18;
+
+	/* Position of the fields of the header */
+	private final static int FROM_OFFSET = 1;
+	private final static int TO_OFFSET = 2;
+	private final static int SEQUENCE_OFFSET = 3;
+	private final static int OPCODE_OFFSET = 7;
+	private final static int COPIES_OFFSET = 8;
+	private final static int COUNT_OFFSET = 9;
+	private final static int TIMESTAMP_OFFSET = 10;
+
+	/* Maximum number of messages in a frame */
+	public final static int MAX_MESSAGES = 127;
+
+	/* Quantized, delta encoded coordinates */
+	private final BehaviorCoder behaviors = new BehaviorCoder();
+
+	/* Objects created by the decoder */
+	private long allocations = 0;
+
+	public MessageCodec() {
+
+	}
+
+	/**
+	 * Start a new frame
+	 *
+	 * <p>The buffer is cleared and receives the header, with no message.</p>
+	 *
+	 * @param out : buffer receiving the frame
+	 * @param from : id of the sender
+	 * @param to : id of the receiver (car or train)
+	 * @param timestamp of the frame
+	 */
+	public void beginFrame(ByteBuffer out, int from, int to, long timestamp) {
+		out.clear();
+		out.put(VERSION);
+		out.put((byte) from);
+		out.put((byte) to);
+		out.putInt(0);
+		out.put((byte) Opcode.UNKNOWN);
+		out.put((byte) 1);
+		out.put((byte) 0);
+		out.putLong(timestamp);
+	}
+
+	/**
+	 * Append a message to a frame
+	 * @param to : id of the receiver of the frame
+	 * @param message to encode
+	 * @param out : buffer holding the frame
+	 * @return false if the frame already holds MAX_MESSAGES messages
+	 * @throws IllegalArgumentException if the key of the message is unknown
+	 * @throws java.nio.BufferOverflowException if the message does not fit
+	 * 	in the buffer, the position of the buffer is then undefined
+	 */
+	public boolean encodeMessage(int to, Message message, ByteBuffer out) {
+		int opcode = message.getOpcode();
+		if (opcode <= Opcode.UNKNOWN || opcode >= Opcode.COUNT) {
+			throw new IllegalArgumentException("Unknown message key : "
+					+ message.getKey());
+		}
+		int count = out.get(COUNT_OFFSET);
+		if (count >= MAX_MESSAGES) {
+			return false;
+		}
+
+		out.put((byte) opcode);
+		encodePayload(to, opcode, message, out);
+		if (count == 0) {
+			out.put(OPCODE_OFFSET, (byte) opcode);
+		}
+		out.put(COUNT_OFFSET, (byte) (count + 1));
+		return true;
+	}
+
+	/**
+	 * Close a frame, so it is ready to be sent
+	 * @param out : buffer holding the frame
+	 * @param sequence : sequence number of the frame
+	 * @param copies : number of times the frame will be sent
+	 * @param timestamp : time the frame is sent, used by the clock
+	 * 	synchronization
+	 */
+	public void endFrame(ByteBuffer out, int sequence, int copies,
+			long timestamp) {
+		out.putInt(SEQUENCE_OFFSET, sequence);
+		out.put(COPIES_OFFSET, (byte) copies);
+		out.putLong(TIMESTAMP_OFFSET, timestamp);
+		out.flip();
+	}
+
+	/**
+	 * Check that a packet is long enough to hold a header and has the right
+	 * version, without moving the buffer
+	 * @param in : buffer containing the packet, from position to limit
+	 * @return false if the packet is not valid
+	 */
+	public static boolean peekValid(ByteBuffer in) {
+		return in.remaining() >= HEADER_SIZE && in.get(in.position()) == VERSION;
+	}
+
+	/**
+	 * Read the sender of a packet, without moving the buffer
+	 */
+	public static int peekFrom(ByteBuffer in) {
+		return in.get(in.position() + FROM_OFFSET);
+	}
+
+	/**
+	 * Read the receiver (car or train) of a packet, without moving the buffer
+	 */
+	public static int peekTo(ByteBuffer in) {
+		return in.get(in.position() + TO_OFFSET);
+	}
+
+	/**
+	 * Read the sequence number of a packet, without moving the buffer
+	 */
+	public static int peekSequence(ByteBuffer in) {
+		return in.getInt(in.position() + SEQUENCE_OFFSET);
+	}
+
+	/**
+	 * Read the opcode of the first message of a packet, without moving the buffer
+	 */
+	public static int peekOpcode(ByteBuffer in) {
+		return in.get(in.position() + OPCODE_OFFSET);
+	}
+
+	/**
+	 * Read the number of copies of a packet, without moving the buffer
+	 */
+	public static int peekCopies(ByteBuffer in) {
+		return in.get(in.position() + COPIES_OFFSET);
+	}
+
+	/**
+	 * Read the number of messages of a packet, without moving the buffer
+	 */
+	public static int peekCount(ByteBuffer in) {
+		return in.get(in.position() + COUNT_OFFSET);
+	}
+
+	/**
+	 * Decode the header of a frame
+	 *
+	 * <p>The datagram is overwritten, so the same object can be used for
+	 * every packet. The buffer is left at the first message.</p>
+	 *
+	 * @param in : buffer containing the packet, from position to limit
+	 * @param datagram receiving the header
+	 * @return false if the packet is not valid
+	 */
+	public boolean decodeHeader(ByteBuffer in, MessageDatagram datagram) {
+		try {
+			if (in.get() != VERSION) {
+				return false;
+			}
+			datagram.setFrom(in.get());
+			datagram.setTo(in.get());
+			datagram.setSequence(in.getInt());
+			in.get();	// Opcode of the first message, decoded with the message
+			datagram.setCopies(in.get());
+			datagram.setCount(in.get());
+			datagram.setTimestamp(in.getLong());
+			return datagram.getCount() >= 0;
+		} catch (BufferUnderflowException e) {
+			/* Truncated packet */
+			return false;
+		}
+	}
+
+	/**
+	 * Decode the next message of a frame
+	 *
+	 * <p>The message is overwritten, so the same object can be used for
+	 * every packet. Speed orders and coordinates are decoded without
+	 * allocating anything.</p>
+	 *
+	 * <p>Coordinates whose keyframe was not received cannot be decoded :
+	 * the message is then left with the UNKNOWN opcode.</p>
+	 *
+	 * @param in : buffer positioned at the message
+	 * @param message receiving the decoded message
+	 * @return false if the message is not valid
+	 */
+	public boolean decodeMessage(ByteBuffer in, Message message) {
+		try {
+			int opcode = in.get();
+			if (opcode <= Opcode.UNKNOWN || opcode >= Opcode.COUNT) {
+				return false;
+			}
+			message.setOpcode(opcode);
+			message.setKeyframe(0);
+			message.setDeliveryId(0);
+			decodePayload(opcode, in, message);
+			return true;
+		} catch (BufferUnderflowException e) {
+			/* Truncated packet */
+			return false;
+		}
+	}
+
+	/**
+	 * A robot acknowledged a keyframe of the coordinates sent to it
+	 * (robot thread only)
+	 * @param from : robot which received the keyframe
+	 * @param keyframe : number of the keyframe
+	 */
+	public void acknowledgeKeyframe(int from, int keyframe) {
+		behaviors.acknowledge(from, keyframe);
+	}
+
+	/**
+	 * Encoder of the coordinates, for its statistics
+	 */
+	public BehaviorCoder getBehaviorCoder() {
+		return behaviors;
+	}
+
+	/**
+	 * Number of objects allocated while decoding packets
+	 *
+	 * <p>Only carsMap and speedPolynom messages should increase it once
+	 * every message of the pool has received its first coordinates.</p>
+	 */
+	public long getAllocations() {
+		return allocations;
+	}
+
+	/**
+	 * Write the value of a message
+	 * @param to : id of the receiver of the frame
+	 * @param opcode of the message
+	 * @param message to encode
+	 * @param out : buffer receiving the value
+	 */
+	@SuppressWarnings("unchecked")
+	private void encodePayload(int to, int opcode, Message message,
+			ByteBuffer out) {
+		Serializable value = message.getValue();
+		switch (opcode) {
+		case Opcode.SPEED:
+		case Opcode.SAFE_DISTANCE:
+			out.putDouble(message.getNumber());
+			break;
+		case Opcode.TRAIN_IN_CROSSING:
+		case Opcode.WARNING_CROSSING:
+		case Opcode.TRAIN_OUT_OF_CROSSING:
+		case Opcode.WARNING_EXIT_CROSSING:
+		case Opcode.ACK:
+			out.putInt(message.getDeliveryId());
+			break;
+		case Opcode.COORDINATES:
+			behaviors.encode(to, (CarsBehavior) value, out);
+			break;
+		case Opcode.COORDINATES_ACK:
+			out.put((byte) message.getKeyframe());
+			break;
+		case Opcode.CARS_MAP:
+			/* Sent once per crossing, every car in full, with its age */
+			Map<Integer, CarsBehavior> cars = (Map<Integer, CarsBehavior>) value;
+			long now = System.currentTimeMillis();
+			out.put((byte) cars.size());
+			for (CarsBehavior behavior : cars.values()) {
+				behaviors.encodeFull(behavior, now, out);
+			}
+			break;
+		case Opcode.TIME_RESPONSE:
+			out.putLong(message.getRequestSent());
+			out.putLong(message.getRequestReceived());
+			break;
+		case Opcode.SPEED_POLYNOM:
+			SpeedPolynom polynom = (SpeedPolynom) value;
+			if (polynom == null) {
+				out.put((byte) 0);
+				break;
+			}
+			int degree = polynom.getDegree();
+			out.put((byte) (degree + 1));
+			for (int i = 0; i <= degree; i++) {
+				out.putDouble(polynom.getCoeff(i));
+			}
+			break;
+		case Opcode.SPEED_PROFILE:
+			/* Speed percentages to 0.01 % */
+			SpeedProfile profile = (SpeedProfile) value;
+			out.put((byte) SpeedProfile.BINS);
+			for (int i = 0; i < SpeedProfile.BINS; i++) {
+				out.putShort((short) Math.round(profile.getBin(i) * 100));
+			}
+			break;
+		default:
+			/* The key itself is the message */
+			break;
+		}
+	}
+
+	/**
+	 * Read the value of a message
+	 * @param opcode of the message
+	 * @param in : buffer containing the value
+	 * @param message receiving the value
+	 */
+	private void decodePayload(int opcode, ByteBuffer in, Message message) {
+		switch (opcode) {
+		case Opcode.SPEED:
+		case Opcode.SAFE_DISTANCE:
+			message.setValue(null);
+			message.setNumber(in.getDouble());
+			break;
+		case Opcode.TRAIN_IN_CROSSING:
+		case Opcode.WARNING_CROSSING:
+		case Opcode.TRAIN_OUT_OF_CROSSING:
+		case Opcode.WARNING_EXIT_CROSSING:
+		case Opcode.ACK:
+			message.setValue(null);
+			message.setDeliveryId(in.getInt());
+			break;
+		case Opcode.COORDINATES:
+			CarsBehavior behavior = message.getBehavior();
+			if (behavior == null) {
+				/* First coordinates decoded into this message */
+				behavior = new CarsBehavior(0, 0, 0, 0, 0, 0);
+				message.setBehavior(behavior);
+				allocations++;
+			}
+			int keyframe = behaviors.decode(in, behavior);
+			if (keyframe < 0) {
+				message.setOpcode(Opcode.UNKNOWN);
+				message.setValue(null);
+				break;
+			}
+			message.setKeyframe(keyframe);
+			message.setValue(behavior);
+			break;
+		case Opcode.COORDINATES_ACK:
+			message.setValue(null);
+			message.setKeyframe(in.get());
+			break;
+		case Opcode.TIME_RESPONSE:
+			message.setValue(null);
+			message.setRequestSent(in.getLong());
+			message.setRequestReceived(in.getLong());
+			break;
+		case Opcode.CARS_MAP:
+			/* The map is kept by the leader, so it cannot be reused */
+			TreeMap<Integer, CarsBehavior> cars = new TreeMap<>();
+			allocations++;
+			int size = in.get();
+			for (int i = 0; i < size; i++) {
+				CarsBehavior car = new CarsBehavior(0, 0, 0, 0, 0, 0);
+				allocations += 2;	// Behavior and map entry
+				behaviors.decodeFull(in, message.getTimestamp(), car);
+				cars.put(car.getId(), car);
+			}
+			message.setValue(cars);
+			break;
+		case Opcode.SPEED_POLYNOM:
+			int count = in.get();
+			if (count == 0) {
+				message.setValue(null);
+				break;
+			}
+			/* The polynom is kept by the robot, so it cannot be reused */
+			SpeedPolynom polynom = new SpeedPolynom(count - 1);
+			allocations += 2;	// Polynom and its coefficients
+			for (int i = 0; i < count; i++) {
+				polynom.setCoeff(i, in.getDouble());
+			}
+			message.setValue(polynom);
+			break;
+		case Opcode.SPEED_PROFILE:
+			int bins = in.get() & 0xFF;
+			if (2 * bins > in.remaining()) {
+				/* Rejected as a truncated frame */
+				throw new BufferUnderflowException();
+			}
+			if (bins != SpeedProfile.BINS) {
+				/* Table of another size of bins */
+				in.position(in.position() + 2 * bins);
+				message.setValue(null);
+				break;
+			}
+			/* Copied by the robot, but received on the network thread */
+			SpeedProfile profile = new SpeedProfile();
+			allocations++;
+			for (int i = 0; i < bins; i++) {
+				profile.setBin(i, in.getShort() / 100f);
+			}
+			message.setValue(profile);
+			break;
+		default:
+			message.setValue(null);
+			break;
+		}
+	}
+}
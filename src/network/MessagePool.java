@@ -0,0 +1,75 @@
+package network;
+
+import utils.Message;
+import utils.RingBuffer;
+
+/**
+ * MessagePool class
+ *
+ * <p>Preallocated messages used by the receiving thread. The listening
+ * thread acquires a message, decodes a packet into it and hands it to the
+ * mailbox. The robot releases it once the message has been processed.</p>
+ *
+ * <p>Messages which never reach the robot (replaced in the mailbox, or not
+ * decoded) are recycled by the network thread itself, and acquired again
+ * before the ones released by the robot.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class MessagePool {
+
+	private final RingBuffer<Message> free;
+	/* Messages recycled by the network thread, only used by it */
+	private final Message[] recycled;
+	private int recycledCount = 0;
+
+	/**
+	 * Constructor
+	 * @param size : number of preallocated messages
+	 */
+	public MessagePool(int size) {
+		free = new RingBuffer<>(size);
+		for (int i = 0; i < free.capacity(); i++) {
+			free.offer(new Message());
+		}
+		recycled = new Message[free.capacity()];
+	}
+
+	/**
+	 * Take a message from the pool (network thread only)
+	 * @return a free message, or null if all messages are in use
+	 */
+	public Message acquire() {
+		if (recycledCount > 0) {
+			Message message = recycled[--recycledCount];
+			recycled[recycledCount] = null;
+			return message;
+		}
+		return free.poll();
+	}
+
+	/**
+	 * Give back a message which was never handed to the robot (network
+	 * thread only)
+	 * @param message acquired from this pool
+	 */
+	public void recycle(Message message) {
+		recycled[recycledCount++] = message;
+	}
+
+	/**
+	 * Give a message back to the pool (robot thread only)
+	 * @param message which is not used anymore
+	 */
+	public void release(Message message) {
+		free.offer(message);
+	}
+
+	/**
+	 * Number of messages currently available
+	 */
+	public int available() {
+		return free.size() + recycledCount;
+	}
+}
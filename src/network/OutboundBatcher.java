@@ -0,0 +1,164 @@
+package network;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import utils.Constants;
+import utils.Message;
+
+/**
+ * OutboundBatcher class
+ *
+ * <p>Collects the messages sent during one iteration of the control loop.
+ * Every message for the same destination goes into the same frame, and the
+ * frames are handed to the transport when the iteration ends. Related orders
+ * (for example inCrossing, speed and safeDistance) are then sent in one
+ * packet, and are received together or not at all.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class OutboundBatcher {
+
+	private final int from;
+	private final Transport transport;
+	private final MessageCodec codec;
+	private final RedundancyController redundancy;
+	private final AddressBook addresses;
+
+	/* Frame being filled for each destination */
+	private final Packet[] frames = new Packet[Constants.MAX_CAR_ID];
+	/* Number of copies needed by the messages of each frame */
+	private final int[] copies = new int[Constants.MAX_CAR_ID];
+	/* Sequence number of the last frame sent to each car or train */
+	private final int[] sequenceTo = new int[Constants.MAX_CAR_ID];
+
+	/* Destinations with a frame, in the order of their first message */
+	private final int[] pending = new int[Constants.MAX_CAR_ID];
+	private int pendingCount = 0;
+
+	/* Messages lost because no packet was available */
+	private long droppedMessages = 0;
+
+	/**
+	 * Constructor
+	 * @param from : id of the robot
+	 * @param transport sending the frames
+	 * @param codec used to encode the messages
+	 * @param redundancy : number of copies of each frame
+	 * @param addresses : where the frames are sent
+	 */
+	public OutboundBatcher(int from, Transport transport,
+			MessageCodec codec, RedundancyController redundancy,
+			AddressBook addresses) {
+		this.from = from;
+		this.transport = transport;
+		this.codec = codec;
+		this.redundancy = redundancy;
+		this.addresses = addresses;
+
+		/*
+		 * Sequence numbers start from the clock, so that they are always
+		 * ahead of the ones used before a restart of the robot
+		 */
+		int first = (int) (System.currentTimeMillis() & 0x3FFFFFFF);
+		for (int i = 0; i < sequenceTo.length; i++) {
+			sequenceTo[i] = first;
+		}
+	}
+
+	/**
+	 * Add a message to the frame of its destination
+	 * @param to : id of the car, or of the train (10*trainNumber)
+	 * @param message to send
+	 */
+	public void add(int to, Message message) {
+		if (frames[to] == null && !open(to)) {
+			droppedMessages++;
+			return;
+		}
+
+		if (!append(to, message)) {
+			/* The frame is full, send it and start a new one */
+			close(to);
+			if (!open(to) || !append(to, message)) {
+				droppedMessages++;
+				return;
+			}
+		}
+		copies[to] = Math.max(copies[to],
+				redundancy.copiesFor(to, message.getOpcode()));
+	}
+
+	/**
+	 * Send every frame filled since the last flush
+	 */
+	public void flush() {
+		for (int i = 0; i < pendingCount; i++) {
+			int to = pending[i];
+			if (frames[to] != null) {
+				close(to);
+			}
+		}
+		pendingCount = 0;
+	}
+
+	/**
+	 * Start a frame for a destination
+	 * @return false if no packet is available
+	 */
+	private boolean open(int to) {
+		Packet frame = transport.acquire();
+		if (frame == null) {
+			return false;
+		}
+		codec.beginFrame(frame.getBuffer(), from, to,
+				System.currentTimeMillis());
+		frame.setDestination(addresses.resolve(to));
+		frames[to] = frame;
+		copies[to] = 1;
+
+		/* Remember the destination, unless it already had a frame */
+		for (int i = 0; i < pendingCount; i++) {
+			if (pending[i] == to) {
+				return true;
+			}
+		}
+		pending[pendingCount++] = to;
+		return true;
+	}
+
+	/**
+	 * Encode a message at the end of the frame of a destination
+	 * @return false if the message does not fit in the frame
+	 */
+	private boolean append(int to, Message message) {
+		ByteBuffer out = frames[to].getBuffer();
+		int mark = out.position();
+		try {
+			return codec.encodeMessage(to, message, out);
+		} catch (BufferOverflowException e) {
+			out.position(mark);
+			return false;
+		}
+	}
+
+	/**
+	 * Hand the frame of a destination to the transport
+	 */
+	private void close(int to) {
+		Packet frame = frames[to];
+		codec.endFrame(frame.getBuffer(), ++sequenceTo[to], copies[to],
+				System.currentTimeMillis());
+		frame.setCopies(copies[to]);
+		transport.send(frame);
+		frames[to] = null;
+	}
+
+	/**
+	 * Number of messages lost because every packet was waiting to be sent
+	 */
+	public long getDroppedMessages() {
+		return droppedMessages;
+	}
+}
@@ -0,0 +1,49 @@
+package network;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Packet class
+ *
+ * <p>Preallocated outgoing packet: the encoded bytes, where to send them
+ * and how many times.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class Packet {
+
+	private final ByteBuffer buffer;
+	private SocketAddress destination;
+	/* Number of times the packet is sent */
+	private int copies = 1;
+
+	/* Sending state, managed by the transport */
+	int copiesLeft;
+	long nextCopyTime;
+
+	public Packet(int size) {
+		buffer = ByteBuffer.allocate(size);
+	}
+
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	public SocketAddress getDestination() {
+		return destination;
+	}
+
+	public void setDestination(SocketAddress destination) {
+		this.destination = destination;
+	}
+
+	public int getCopies() {
+		return copies;
+	}
+
+	public void setCopies(int copies) {
+		this.copies = copies;
+	}
+}
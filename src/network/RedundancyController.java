@@ -0,0 +1,78 @@
+package network;
+
+import utils.Constants;
+import utils.Opcode;
+
+/**
+ * RedundancyController class
+ *
+ * <p>Chooses how many times a message is sent. Each kind of message has a
+ * target delivery probability, and the number of copies is the smallest one
+ * reaching it with the loss rate measured on the link:</p>
+ *
+ * <pre>
+ * 1 - loss^copies &gt;= target
+ * </pre>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class RedundancyController {
+
+	/* Target delivery probability of each message class */
+	public final static double CRITICAL = 0.999;
+	public final static double ORDER = 0.99;
+	public final static double TELEMETRY = 0.9;
+
+	private final LinkQuality linkQuality;
+
+	/* Target delivery probability, indexed by opcode */
+	private final double[] targets = new double[Opcode.COUNT];
+
+	public RedundancyController(LinkQuality linkQuality) {
+		this.linkQuality = linkQuality;
+
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = ORDER;
+		}
+		/* Crossing protocol, a lost message blocks the trains */
+		targets[Opcode.TRAIN_IN_CROSSING] = CRITICAL;
+		targets[Opcode.WARNING_CROSSING] = CRITICAL;
+		targets[Opcode.IN_CROSSING] = CRITICAL;
+		targets[Opcode.TRAIN_OUT_OF_CROSSING] = CRITICAL;
+		targets[Opcode.WARNING_EXIT_CROSSING] = CRITICAL;
+		targets[Opcode.OUT_CROSSING] = CRITICAL;
+		targets[Opcode.CARS_MAP] = CRITICAL;
+		/* Coordinates are sent again every few hundred milliseconds */
+		targets[Opcode.COORDINATES] = TELEMETRY;
+	}
+
+	/**
+	 * Number of copies of a message
+	 * @param to : destination of the message
+	 * @param opcode of the message
+	 * @return number of copies, between 1 and MAX_COPIES
+	 */
+	public int copiesFor(int to, int opcode) {
+		double loss = linkQuality.lossTo(to);
+		if (loss <= 0) {
+			return 1;
+		}
+		if (loss >= 1) {
+			return Constants.MAX_COPIES;
+		}
+		double target = opcode > Opcode.UNKNOWN && opcode < Opcode.COUNT
+				? targets[opcode] : ORDER;
+		int copies = (int) Math.ceil(Math.log(1 - target) / Math.log(loss));
+		return Math.max(1, Math.min(copies, Constants.MAX_COPIES));
+	}
+
+	/**
+	 * Change the target delivery probability of a kind of message
+	 * @param opcode of the message
+	 * @param target : probability, between 0 and 1 (excluded)
+	 */
+	public void setTarget(int opcode, double target) {
+		targets[opcode] = target;
+	}
+}
@@ -0,0 +1,275 @@
+package network;
+
+import utils.Constants;
+import utils.Message;
+import utils.Opcode;
+
+/**
+ * ReliableSender class
+ *
+ * <p>Acknowledged delivery of the messages of the crossing protocol. Each
+ * reliable message gets a delivery id, and is sent again until the
+ * receiver acknowledges it:</p>
+ * <ul>
+ * <li>the retransmission timeout of each destination comes from the round
+ * trip times measured on it (smoothed RTT + 4 * RTT variation), only
+ * sampled on messages which were not sent again,</li>
+ * <li>the timeout doubles after each retransmission, up to RTO_MAX_MS,</li>
+ * <li>a message still not acknowledged after MAX_ATTEMPTS is given up.</li>
+ * </ul>
+ * <p>Every other message stays best effort, with only the copies chosen
+ * by the RedundancyController.</p>
+ *
+ * <p>Delivery is point-to-point only : a message is complete when its
+ * destination acknowledges it, so it cannot be sent to a group (id
+ * multiple of 10), whose members would each acknowledge it.</p>
+ *
+ * <p>Only used by the robot thread.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class ReliableSender {
+
+	/* Timeouts, in milliseconds */
+	public final static long RTO_INITIAL_MS = 200;
+	public final static long RTO_MIN_MS = 50;
+	public final static long RTO_MAX_MS = 2000;
+	/* Number of times a message is sent before giving up */
+	public final static int MAX_ATTEMPTS = 8;
+	/* Number of messages waiting for their acknowledgement */
+	public final static int MAX_PENDING = 16;
+
+	private final OutboundBatcher batcher;
+
+	/* Opcodes delivered reliably */
+	private final boolean[] reliable = new boolean[Opcode.COUNT];
+
+	/* Delivery id of the last message sent */
+	private int lastId;
+
+	/* Messages waiting for their acknowledgement, id 0 for a free slot */
+	private final int[] pendingId = new int[MAX_PENDING];
+	private final int[] pendingTo = new int[MAX_PENDING];
+	private final long[] firstSent = new long[MAX_PENDING];
+	private final long[] deadline = new long[MAX_PENDING];
+	private final int[] attempts = new int[MAX_PENDING];
+	private final Message[] pending = new Message[MAX_PENDING];
+
+	/* Round trip time of each destination, in milliseconds, 0 if not measured */
+	private final double[] smoothedRtt = new double[Constants.MAX_CAR_ID];
+	private final double[] rttVariation = new double[Constants.MAX_CAR_ID];
+
+	/* Statistics */
+	private long delivered = 0;
+	private long retransmissions = 0;
+	private long failures = 0;
+	private long overflows = 0;
+	private long lastLatency = 0;
+	private long maxLatency = 0;
+	private double averageLatency = 0;
+
+	/**
+	 * Constructor
+	 * @param batcher sending the messages
+	 */
+	public ReliableSender(OutboundBatcher batcher) {
+		this.batcher = batcher;
+		for (int i = 0; i < MAX_PENDING; i++) {
+			pending[i] = new Message();
+		}
+		/* Same origin as the sequence numbers, ahead of the ids used before a restart */
+		lastId = (int) (System.currentTimeMillis() & 0x3FFFFFFF);
+
+		reliable[Opcode.TRAIN_IN_CROSSING] = true;
+		reliable[Opcode.WARNING_CROSSING] = true;
+		reliable[Opcode.TRAIN_OUT_OF_CROSSING] = true;
+		reliable[Opcode.WARNING_EXIT_CROSSING] = true;
+	}
+
+	/**
+	 * Check if the messages with an opcode are delivered reliably
+	 */
+	public boolean isReliable(int opcode) {
+		return opcode > Opcode.UNKNOWN && opcode < Opcode.COUNT
+				&& reliable[opcode];
+	}
+
+	/**
+	 * Choose if the messages with an opcode are delivered reliably
+	 * @param opcode of the messages
+	 * @param enabled : true for acknowledged delivery
+	 */
+	public void setReliable(int opcode, boolean enabled) {
+		reliable[opcode] = enabled;
+	}
+
+	/**
+	 * Send a message, and keep it until it is acknowledged
+	 *
+	 * <p>Only the opcode of the message is kept : the reliable messages
+	 * have no value.</p>
+	 *
+	 * @param to : destination of the message, a single car
+	 * @param message to send
+	 * @throws IllegalArgumentException if the destination is a group
+	 */
+	public void send(int to, Message message) {
+		if (to % 10 == 0) {
+			throw new IllegalArgumentException("Reliable message to group "
+					+ to);
+		}
+		lastId = lastId == Integer.MAX_VALUE ? 1 : lastId + 1;
+		message.setDeliveryId(lastId);
+
+		int slot = freeSlot();
+		if (slot < 0) {
+			/* Too many messages waiting, this one is only sent once */
+			overflows++;
+			batcher.add(to, message);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		pendingId[slot] = lastId;
+		pendingTo[slot] = to;
+		pending[slot].setOpcode(message.getOpcode());
+		pending[slot].setDeliveryId(lastId);
+		firstSent[slot] = now;
+		attempts[slot] = 1;
+		deadline[slot] = now + timeout(to);
+		batcher.add(to, message);
+	}
+
+	/**
+	 * A message has been acknowledged
+	 * @param from : robot which acknowledged it
+	 * @param id : delivery id of the message
+	 */
+	public void acknowledge(int from, int id) {
+		for (int slot = 0; slot < MAX_PENDING; slot++) {
+			if (pendingId[slot] != 0 && pendingId[slot] == id
+					&& pendingTo[slot] == from) {
+				long latency = System.currentTimeMillis() - firstSent[slot];
+				if (attempts[slot] == 1) {
+					/* Retransmitted messages would give an ambiguous sample */
+					sampleRtt(pendingTo[slot], latency);
+				}
+				lastLatency = latency;
+				maxLatency = Math.max(maxLatency, latency);
+				averageLatency = delivered == 0 ? latency
+						: averageLatency + (latency - averageLatency) / 8;
+				delivered++;
+				pendingId[slot] = 0;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Send again the messages whose timeout expired
+	 *
+	 * <p>Called at the end of each iteration, before the messages are
+	 * flushed.</p>
+	 */
+	public void retransmit() {
+		long now = System.currentTimeMillis();
+		for (int slot = 0; slot < MAX_PENDING; slot++) {
+			if (pendingId[slot] == 0 || now < deadline[slot]) {
+				continue;
+			}
+			if (attempts[slot] >= MAX_ATTEMPTS) {
+				failures++;
+				pendingId[slot] = 0;
+				continue;
+			}
+			/* Exponential backoff */
+			long rto = timeout(pendingTo[slot]) << attempts[slot];
+			attempts[slot]++;
+			deadline[slot] = now + Math.min(rto, RTO_MAX_MS);
+			retransmissions++;
+			batcher.add(pendingTo[slot], pending[slot]);
+		}
+	}
+
+	/**
+	 * Retransmission timeout of a destination, before any backoff
+	 */
+	public long timeout(int to) {
+		if (smoothedRtt[to] == 0) {
+			return RTO_INITIAL_MS;
+		}
+		long rto = (long) Math.ceil(smoothedRtt[to] + 4 * rttVariation[to]);
+		return Math.max(RTO_MIN_MS, Math.min(rto, RTO_MAX_MS));
+	}
+
+	private void sampleRtt(int to, long rtt) {
+		if (smoothedRtt[to] == 0) {
+			smoothedRtt[to] = Math.max(rtt, 1);
+			rttVariation[to] = rtt / 2.;
+		} else {
+			rttVariation[to] += (Math.abs(smoothedRtt[to] - rtt) - rttVariation[to]) / 4;
+			smoothedRtt[to] += (rtt - smoothedRtt[to]) / 8;
+		}
+	}
+
+	private int freeSlot() {
+		for (int slot = 0; slot < MAX_PENDING; slot++) {
+			if (pendingId[slot] == 0) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Smoothed round trip time to a robot, in milliseconds, 0 if not measured
+	 */
+	public double getRtt(int to) {
+		return smoothedRtt[to];
+	}
+
+	/**
+	 * Number of messages acknowledged
+	 */
+	public long getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * Number of times a message was sent again
+	 */
+	public long getRetransmissions() {
+		return retransmissions;
+	}
+
+	/**
+	 * Number of messages given up after MAX_ATTEMPTS
+	 */
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Number of messages only sent once because too many were waiting
+	 */
+	public long getOverflows() {
+		return overflows;
+	}
+
+	/**
+	 * Delivery latency (first send to acknowledgement) of the last message,
+	 * in milliseconds
+	 */
+	public long getLastLatency() {
+		return lastLatency;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	public double getAverageLatency() {
+		return averageLatency;
+	}
+}
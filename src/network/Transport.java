@@ -0,0 +1,72 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Transport interface
+ *
+ * <p>Moves the encoded frames between the robots. The robot's thread
+ * acquires a packet, fills it and sends it ; incoming packets are handed to
+ * a listener on the transport's own thread.</p>
+ *
+ * <p>{@link UdpTransport} is the real network. {@link LoopbackTransport}
+ * connects robots running in the same JVM through a simulated network.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public interface Transport {
+
+	/**
+	 * Receives the incoming packets, on the network thread
+	 */
+	public interface PacketListener {
+		/**
+		 * @param packet : content of the packet, from position to limit.
+		 * 	The buffer is reused once the method returns.
+		 * @param sender : address the packet comes from
+		 */
+		void onPacket(ByteBuffer packet, SocketAddress sender);
+	}
+
+	/**
+	 * Start sending and receiving
+	 * @throws IOException
+	 */
+	void open() throws IOException;
+
+	/**
+	 * Receive the packets sent to a multicast group
+	 * @param group : multicast address
+	 * @throws IOException
+	 */
+	void join(InetAddress group) throws IOException;
+
+	/**
+	 * Get an empty packet to fill (robot's thread only)
+	 * @return the packet, or null if every packet is waiting to be sent
+	 */
+	Packet acquire();
+
+	/**
+	 * Send a packet acquired from this transport (robot's thread only)
+	 *
+	 * <p>The buffer of the packet must be flipped, ready to be read.</p>
+	 *
+	 * @param packet to send
+	 */
+	void send(Packet packet);
+
+	long getSentPackets();
+
+	long getReceivedPackets();
+
+	/**
+	 * Number of messages which could not be queued because every packet was
+	 * still waiting to be sent
+	 */
+	long getDroppedPackets();
+}
@@ -0,0 +1,350 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Enumeration;
+
+import utils.Constants;
+import utils.RingBuffer;
+
+/**
+ * UdpTransport class
+ *
+ * <p>Non-blocking UDP transport running its own event loop. Incoming packets
+ * are handed to the listener as soon as the selector reports them, and
+ * outgoing packets are queued by the robot's thread and written by the
+ * event loop, so neither side ever waits on the socket.</p>
+ *
+ * <p>The first copy of a packet is sent right away. The following copies are
+ * spaced by COPY_SPACING_MS, so a short burst of interference does not take
+ * all of them.</p>
+ *
+ * <p>The event loop is the only network thread of the robot : a packet the
+ * listener fails on, or which cannot be sent, is dropped and counted, and
+ * the loop goes on.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class UdpTransport implements Transport, Runnable {
+
+	private final int port;
+	private final PacketListener listener;
+
+	private DatagramChannel channel;
+	private NetworkInterface networkInterface;
+	private Selector selector;
+	private SelectionKey key;
+
+	private final ByteBuffer receiveBuffer = ByteBuffer
+			.allocate(Constants.PACKET_SIZE);
+
+	/* Packets available to the robot's thread */
+	private final RingBuffer<Packet> free;
+	/* Packets waiting to be sent by the event loop */
+	private final RingBuffer<Packet> queue;
+	/* New packet being sent */
+	private Packet sending;
+	/* Packets with copies left to send, waiting for their next copy time */
+	private final Packet[] delayed;
+	private int delayedCount = 0;
+	private final long copySpacing = Constants.COPY_SPACING_MS * 1000000L;
+
+	/* Statistics */
+	private volatile long sentPackets = 0;
+	private volatile long receivedPackets = 0;
+	private long droppedPackets = 0;
+	private volatile long rejectedPackets = 0;
+	private volatile long failedPackets = 0;
+
+	/**
+	 * Constructor
+	 * @param port : UDP port used for sending and receiving
+	 * @param queueSize : number of preallocated outgoing packets
+	 * @param listener receiving the incoming packets
+	 */
+	public UdpTransport(int port, int queueSize, PacketListener listener) {
+		this.port = port;
+		this.listener = listener;
+		free = new RingBuffer<>(queueSize);
+		queue = new RingBuffer<>(queueSize);
+		delayed = new Packet[free.capacity()];
+		for (int i = 0; i < free.capacity(); i++) {
+			free.offer(new Packet(Constants.PACKET_SIZE));
+		}
+	}
+
+	/**
+	 * Open the socket and start the event loop
+	 * @throws IOException
+	 */
+	@Override
+	public void open() throws IOException {
+		channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		channel.bind(new InetSocketAddress(port));
+
+		/* Multicast packets go through the wireless interface */
+		networkInterface = findInterface();
+		if (networkInterface != null) {
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_IF,
+					networkInterface);
+		}
+		/* A robot also receives what it sends to its own groups */
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+
+		selector = Selector.open();
+		key = channel.register(selector, SelectionKey.OP_READ);
+
+		Thread t = new Thread(this, "network");
+		t.start();
+	}
+
+	/**
+	 * Receive the packets sent to a multicast group
+	 * @param group : multicast address
+	 * @throws IOException
+	 */
+	@Override
+	public void join(InetAddress group) throws IOException {
+		channel.join(group, networkInterface);
+	}
+
+	/**
+	 * Find the interface used for multicast
+	 * @return the interface named NETWORK_INTERFACE, or else the first
+	 * 	interface supporting multicast
+	 * @throws SocketException
+	 */
+	private NetworkInterface findInterface() throws SocketException {
+		NetworkInterface named = NetworkInterface
+				.getByName(Constants.NETWORK_INTERFACE);
+		if (named != null) {
+			return named;
+		}
+		Enumeration<NetworkInterface> interfaces = NetworkInterface
+				.getNetworkInterfaces();
+		while (interfaces.hasMoreElements()) {
+			NetworkInterface candidate = interfaces.nextElement();
+			if (candidate.isUp() && candidate.supportsMulticast()
+					&& !candidate.isLoopback()) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get an empty packet to fill (robot's thread only)
+	 * @return the packet, or null if every packet is waiting to be sent
+	 */
+	@Override
+	public Packet acquire() {
+		Packet packet = free.poll();
+		if (packet == null) {
+			droppedPackets++;
+			return null;
+		}
+		packet.getBuffer().clear();
+		packet.setCopies(1);
+		return packet;
+	}
+
+	/**
+	 * Queue a packet acquired from this transport (robot's thread only)
+	 *
+	 * <p>The buffer of the packet must be flipped, ready to be read.</p>
+	 *
+	 * @param packet to send
+	 */
+	@Override
+	public void send(Packet packet) {
+		queue.offer(packet);
+		selector.wakeup();
+	}
+
+	/*
+	 * Event loop
+	 *
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		long timeout = 0;
+		while (true) {
+			try {
+				if (timeout > 0) {
+					selector.select(timeout);
+				} else {
+					selector.select();
+				}
+				selector.selectedKeys().clear();
+				receive();
+				timeout = flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Hand every pending packet to the listener
+	 * @throws IOException
+	 */
+	private void receive() throws IOException {
+		SocketAddress sender;
+		while ((sender = channel.receive(receiveBuffer)) != null) {
+			receiveBuffer.flip();
+			receivedPackets++;
+			try {
+				listener.onPacket(receiveBuffer, sender);
+			} catch (RuntimeException e) {
+				/* A malformed packet must not stop the network thread */
+				e.printStackTrace();
+				rejectedPackets++;
+			}
+			receiveBuffer.clear();
+		}
+	}
+
+	/**
+	 * Send the copies which are due and the queued packets, until the queue
+	 * is empty or the socket is full
+	 * @return time to wait for the next copy in milliseconds, 0 if none
+	 */
+	private long flush() {
+		long now = System.nanoTime();
+		boolean full = false;
+
+		/* Next copies of the packets already sent */
+		for (int i = 0; i < delayedCount && !full;) {
+			Packet packet = delayed[i];
+			if (packet.nextCopyTime <= now) {
+				if (!sendCopy(packet)) {
+					full = true;
+					break;
+				}
+				if (packet.copiesLeft == 0) {
+					delayed[i] = delayed[--delayedCount];
+					delayed[delayedCount] = null;
+					free.offer(packet);
+					continue;
+				}
+				packet.nextCopyTime = now + copySpacing;
+			}
+			i++;
+		}
+
+		/* First copy of the new packets */
+		while (!full) {
+			if (sending == null) {
+				sending = queue.poll();
+				if (sending == null) {
+					break;
+				}
+				sending.copiesLeft = sending.getCopies();
+			}
+			if (!sendCopy(sending)) {
+				full = true;
+				break;
+			}
+			if (sending.copiesLeft > 0) {
+				sending.nextCopyTime = now + copySpacing;
+				delayed[delayedCount++] = sending;
+			} else {
+				free.offer(sending);
+			}
+			sending = null;
+		}
+
+		if (full) {
+			/* Socket buffer is full, wait until it is writable */
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			return 0;
+		}
+		key.interestOps(SelectionKey.OP_READ);
+
+		/* Wake up for the closest copy */
+		long next = Long.MAX_VALUE;
+		for (int i = 0; i < delayedCount; i++) {
+			next = Math.min(next, delayed[i].nextCopyTime);
+		}
+		if (next == Long.MAX_VALUE) {
+			return 0;
+		}
+		return Math.max(1, (next - now + 999999) / 1000000);
+	}
+
+	/**
+	 * Send one copy of a packet
+	 * 
+	 * <p>If the socket refuses the packet, its remaining copies are given
+	 * up, so it goes back to the free packets instead of being retried
+	 * forever.</p>
+	 * 
+	 * @param packet to send
+	 * @return false if the socket buffer is full
+	 */
+	private boolean sendCopy(Packet packet) {
+		ByteBuffer data = packet.getBuffer();
+		data.position(0);
+		try {
+			if (channel.send(data, packet.getDestination()) == 0) {
+				return false;
+			}
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+			packet.copiesLeft = 0;
+			failedPackets++;
+			return true;
+		}
+		packet.copiesLeft--;
+		sentPackets++;
+		return true;
+	}
+
+	@Override
+	public long getSentPackets() {
+		return sentPackets;
+	}
+
+	@Override
+	public long getReceivedPackets() {
+		return receivedPackets;
+	}
+
+	/**
+	 * Number of messages which could not be queued because every packet was
+	 * still waiting to be sent
+	 */
+	@Override
+	public long getDroppedPackets() {
+		return droppedPackets;
+	}
+
+	/**
+	 * Number of received packets dropped because the listener failed on them
+	 */
+	public long getRejectedPackets() {
+		return rejectedPackets;
+	}
+
+	/**
+	 * Number of packets given up because the socket refused them
+	 */
+	public long getFailedPackets() {
+		return failedPackets;
+	}
+}
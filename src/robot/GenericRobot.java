@@ -1,21 +1,8 @@
 package robot;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import lejos.hardware.Button;
 import lejos.hardware.Sound;
@@ -27,12 +14,26 @@ import lejos.hardware.sensor.EV3ColorSensor;
 import lejos.hardware.sensor.EV3UltrasonicSensor;
 import lejos.robotics.Color;
 import lejos.robotics.SampleProvider;
+import network.ClockSync;
+import network.LoopbackNetwork;
+import network.Transport;
+import network.UdpTransport;
 import utils.CarsBehavior;
+import utils.ColorTable;
 import utils.Constants;
+import utils.ControlLoop;
+import utils.FeedbackService;
 import utils.FollowingPolitic;
 import utils.Message;
-import utils.MessageDatagram;
+import utils.MotorDriver;
+import utils.Odometry;
+import utils.Opcode;
+import utils.PidController;
+import utils.SensorReader;
+import utils.SonarSampler;
 import utils.SpeedPolynom;
+import utils.SpeedProfile;
+import utils.SteeringPolitic;
 
 /**
  * GenericRobot class
@@ -46,14 +47,10 @@ import utils.SpeedPolynom;
  */
 public abstract class GenericRobot {
 
-	private DatagramSocket listenSocket;
-	private InetAddress broadcastAddr;
-	/* All messages can be sent multiple times in order to avoid lost packages */
-	private int redundancy;
-	
-	/* Mail box of received messages */
-	protected Map<Integer, Long> timestampLastMessageFrom;
-	protected ConcurrentLinkedQueue<Message> mailbox;
+	/* Simulated network, instead of the wireless one */
+	private static LoopbackNetwork loopback;
+	/* Sending and receiving the messages, without the motors nor the sensors */
+	protected Messenger messenger = new Messenger();
 
 	/* Identity of the robot */
 	private String behaviour;
@@ -71,7 +68,8 @@ public abstract class GenericRobot {
 	protected long roundSinceSetPolynom = 0;
 	protected double speedToReach;	// Objective of speed to reach
 	protected double newSpeed;
-	protected long speedPolynomTachoCount = 0;
+	/* Speed plan up to the crossing, as a table of speed percentages */
+	protected SpeedProfile speedProfile = new SpeedProfile();
 	/*
 	 * The speed of the robot is proportional to the maximum speed. This
 	 * attribute stores a percentage between 0 and 100.
@@ -100,7 +98,7 @@ public abstract class GenericRobot {
 	protected float position = 0;	// Tacho count since last orange mark
 	protected float spin; 	// Spins of the wheels
 	protected boolean orange = false;
-	protected int previousTachoL = 0, previousTachoR = 0;
+	protected Odometry odometry = new Odometry();	// Both wheels, corrected at the marks
 	protected int currentCount;
 	protected int numberOfOrange = 0;
 	protected long lastOrangeTimestamp = 0;
@@ -108,6 +106,10 @@ public abstract class GenericRobot {
 
 	/* When was the last coordinate sent to the train */
 	protected long lastCoordinatesSent = 0;
+	/* Coordinates, encoded as soon as they are sent */
+	private CarsBehavior coordinates = new CarsBehavior(0, 0, 0, 0, 0, 0);
+	private Message coordinatesMessage = new Message(Opcode.COORDINATES,
+			coordinates);
 
 
 	/* Instantiate the 2 motors */
@@ -115,8 +117,12 @@ public abstract class GenericRobot {
 			MotorPort.B);
 	protected EV3LargeRegulatedMotor rightMotor = new EV3LargeRegulatedMotor(
 			MotorPort.C);
+	/* Speeds and directions of the motors, written once per tick */
+	protected MotorDriver leftDriver = new MotorDriver(leftMotor);
+	protected MotorDriver rightDriver = new MotorDriver(rightMotor);
 
 	
+	/* Last RGB sample, the array of colorSensor */
 	protected float colorValue[];
 
 	private EV3ColorSensor c = new EV3ColorSensor(SensorPort.S2);
@@ -125,7 +131,25 @@ public abstract class GenericRobot {
 			SensorPort.S3);
 	private SampleProvider distanceSampleProvider = ultraSonor
 			.getDistanceMode();
+	/* Sample arrays of the sensors, allocated once */
+	protected SensorReader colorSensor = new SensorReader(colorSampleProvider);
+	protected SensorReader distanceSensor = new SensorReader(distanceSampleProvider);
+	/* Reads the distance sensor from its own thread, once started */
+	protected SonarSampler sonar = new SonarSampler(distanceSensor);
+	/* Color of an RGB sample, calibrated on the track */
+	protected ColorTable colorTable = new ColorTable(ColorTable.COLORS.length
+			* Constants.COLOR_SAMPLES);
 	protected FollowingPolitic currentPolitic = FollowingPolitic.TO_A_POINT;
+	/* Steering along the line, and its controller when continuous */
+	protected SteeringPolitic steering = Constants.STEERING;
+	protected PidController steeringPid = new PidController(Constants.PID_KP,
+			Constants.PID_KI, Constants.PID_KD, Constants.PID_OUTPUT_LIMIT);
+
+	/* Screen, LEDs and speaker, driven by their own thread */
+	protected FeedbackService feedback = new FeedbackService();
+
+	/* Runs sense, communicate, decide and actuate at a fixed rate */
+	protected ControlLoop controlLoop = new ControlLoop(Constants.CONTROL_PERIOD_MS);
 
 	/**
 	 * Generic constructor
@@ -133,22 +157,41 @@ public abstract class GenericRobot {
 	public GenericRobot() {
 		Sound.setVolume(20);	// Set Sound volumne
 		setSpeedPercentage(Constants.TRAIN_NORMAL_SPEED);
+		registerHandlers();
+		registerPhases();
+		controlLoop.setAllocationProbe(Constants.ALLOCATION_PROBE);
+		colorValue = colorSensor.getSample();
+		colorTable.load(Constants.COLOR_TABLE_FILE);
 	}
 
 	/**
-	 * Filter incoming message to only get messages assigned to the robot
-	 * @param m : Incoming message packet
-	 * @return boolean : truc if the message was added to the mailbox
+	 * Register the phases of the control loop
 	 */
-	protected boolean filterMessage(MessageDatagram m) {
-		/* If the message is for me or for all cars within my train */
-		if (m.getTo() == carId
-				|| (m.getTo() % 10 == 0 && m.getTo() == carId / 10 * 10)
-		) {
-			mailbox.add(m.getContent());
-			return true;
-		}
-		return false;
+	private void registerPhases() {
+		controlLoop.setPhase(ControlLoop.SENSE, new Runnable() {
+			@Override
+			public void run() {
+				sense();
+			}
+		});
+		controlLoop.setPhase(ControlLoop.COMMUNICATE, new Runnable() {
+			@Override
+			public void run() {
+				getNewMessages();
+			}
+		});
+		controlLoop.setPhase(ControlLoop.DECIDE, new Runnable() {
+			@Override
+			public void run() {
+				decide();
+			}
+		});
+		controlLoop.setPhase(ControlLoop.ACTUATE, new Runnable() {
+			@Override
+			public void run() {
+				actuate();
+			}
+		});
 	}
 
 	/**
@@ -163,48 +206,42 @@ public abstract class GenericRobot {
 		LCD.drawString(behaviour, 1, 1);
 		LCD.drawString("ID :  " + Integer.toString(carId), 1, 2);
 
-		/* Open a datagram socket */
+		/* Open a datagram socket, packets are received by its own thread */
 		try {
-			/* Broadcast all messages */
-			broadcastAddr = InetAddress.getByName("255.255.255.255");
-			/* Create Socket */
-			listenSocket = new DatagramSocket(Constants.SOCKET_NUMBER);
-			listenSocket.setSoTimeout(100);
-			listenSocket.setBroadcast(true);
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
+			messenger.open(carId, createTransport(messenger));
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		
-		redundancy = 2;
-		
-		timestampLastMessageFrom = new HashMap<>();
-		
-		/* Initialize mailbox */
-		mailbox = new ConcurrentLinkedQueue<>();
-
-		/* Setup listening thread */
-		Thread t = new Thread(new Runnable() {
+		feedback.start();
+		startSensors();
+		move();
+	}
 
-			@Override
-			public void run() {
-				MessageDatagram m = null;
-				while (true) {
-					try {
-						m = receiveMessage();
-						if (m != null) {
-							filterMessage(m);
-						}
-					} catch (ClassNotFoundException e) {
-						// e.printStackTrace();
-					}
-				}
-			}
+	/**
+	 * Create the transport of the robot
+	 * 
+	 * <p>UDP on the wireless network, unless the robots were connected to a
+	 * simulated network with useLoopback.</p>
+	 * 
+	 * @param listener receiving the incoming packets
+	 * @return the transport, not opened yet
+	 */
+	protected Transport createTransport(Transport.PacketListener listener) {
+		if (loopback != null) {
+			return loopback.createTransport(Constants.SEND_QUEUE_SIZE, listener);
+		}
+		return new UdpTransport(Constants.SOCKET_NUMBER,
+				Constants.SEND_QUEUE_SIZE, listener);
+	}
 
-		});
-		t.start();
-		
-		move();
+	/**
+	 * Connect the robots created afterwards to a simulated network instead
+	 * of the wireless one
+	 * @param network : simulated network, null for UDP
+	 */
+	public static void useLoopback(LoopbackNetwork network) {
+		loopback = network;
 	}
 
 	/**
@@ -245,17 +282,73 @@ public abstract class GenericRobot {
 	/**
 	 * Init function
 	 * 
-	 * Wait for the user to press enter to start the robot
+	 * Wait for the user to press enter to start the robot, or down to
+	 * calibrate the colors first
 	 */
 	private void init() {
 		LCD.drawString("-----", 1, 2);
 		LCD.drawString("Enter to init", 1, 3);
+		LCD.drawString("Down-calibrate", 1, 4);
 		int pressed = Button.waitForAnyPress();
+		if (pressed == Button.ID_DOWN) {
+			calibrateColors();
+			pressed = Button.ID_ENTER;
+		}
 		if (pressed == Button.ID_ENTER) {
 			hello();
 		}
 	}
 
+	/**
+	 * Calibration of the colors
+	 * 
+	 * For each color of the track, the user puts the robot on it and
+	 * presses enter : COLOR_SAMPLES samples are recorded while the robot is
+	 * moved by hand along the color (escape skips the color). The table built
+	 * from them is saved on the flash, and used from now on.
+	 */
+	private void calibrateColors() {
+		colorTable.clearSamples();
+		for (int i = 0; i < ColorTable.COLORS.length; i++) {
+			LCD.clear();
+			LCD.drawString("Calibration", 1, 1);
+			LCD.drawString("Put on " + ColorTable.NAMES[i], 1, 2);
+			LCD.drawString("Enter-record", 1, 3);
+			LCD.drawString("Escape-skip", 1, 4);
+			if (Button.waitForAnyPress() != Button.ID_ENTER) {
+				continue;
+			}
+			LCD.drawString("Recording...", 1, 5);
+			for (int n = 0; n < Constants.COLOR_SAMPLES; n++) {
+				colorTable.record(ColorTable.COLORS[i], getColor());
+				try {
+					Thread.sleep(Constants.COLOR_SAMPLE_PERIOD_MS);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		LCD.clear();
+		LCD.drawString("Building...", 1, 1);
+		if (colorTable.build()) {
+			try {
+				colorTable.save(Constants.COLOR_TABLE_FILE);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		LCD.clear();
+	}
+
+	/**
+	 * Start the threads reading the sensors, before move
+	 * 
+	 * <p>Only the cars following another one read the sonar.</p>
+	 */
+	protected void startSensors() {
+
+	}
+
 	/**
 	 * Move function
 	 * 
@@ -263,14 +356,59 @@ public abstract class GenericRobot {
 	 */
 	public abstract void move();
 
+	/**
+	 * Sense phase of the control loop : read the sensors
+	 */
+	protected void sense() {
+		colorSensor.fetch();
+	}
+
+	/**
+	 * Decide phase of the control loop : compute the speeds, and the
+	 * messages to send
+	 */
+	protected abstract void decide();
+
+	/**
+	 * Publish the status of the robot on the screen
+	 * 
+	 * <p>Only the values are published here, the feedback service draws
+	 * them a few times per second.</p>
+	 */
+	protected void showStatus() {
+		feedback.show(1, "position:", position);
+		feedback.show(2, " tour : ", spin);
+		feedback.show(3, " orange = ", numberOfOrange);
+		feedback.show(4, "current ", currentCount);
+		feedback.show(5, "crossing ? ", inCrossing);
+		if (steering == SteeringPolitic.PID) {
+			feedback.show(7, "edge rms ", steeringPid.getRmsError());
+		}
+		if (Constants.ALLOCATION_PROBE) {
+			feedback.show(6, "alloc ticks ", controlLoop.getAllocatingTicks());
+		}
+	}
+
+	/**
+	 * Actuate phase of the control loop : send the messages of this tick and
+	 * apply the speeds to the motors
+	 */
+	protected void actuate() {
+		flushMessages();
+		forward();
+		leftDriver.apply();
+		rightDriver.apply();
+	}
+
 	/**
 	 * Forward function
 	 * 
-	 * Starts both motors and execute the speed attributes
+	 * Starts both motors and execute the speed attributes, from the next
+	 * actuate phase
 	 */
 	protected void forward() {
-		leftMotor.forward();
-		rightMotor.forward();
+		leftDriver.forward();
+		rightDriver.forward();
 	}
 
 	/**
@@ -280,39 +418,77 @@ public abstract class GenericRobot {
 	protected void setSpeedPercentage(double speedPercentage) {
 		float speed = (float) (leftMotor.getMaxSpeed() * speedPercentage / 100.);
 		this.speedPercentage = speedPercentage;
-		leftMotor.setSpeed(speed);
-		rightMotor.setSpeed(speed);
+		leftDriver.setSpeed(speed);
+		rightDriver.setSpeed(speed);
 	}
 
 	/**
 	 * Get color sensor values
-	 * @return RGB value from the sensor
+	 * @return RGB value from the sensor, in an array overwritten by the next
+	 * 	sample
 	 */
 	protected float[] getColor() {
-		float[] value = new float[3];
-		colorSampleProvider.fetchSample(value, 0);
-		return value;
+		colorSensor.fetch();
+		return colorSensor.getSample();
 	}
 
 	/**
 	 * Get distance from ultrasonis sensor
-	 * @return distance to the robot (or anything) in front of me
+	 * @return distance to the robot (or anything) in front of me, filtered
+	 * 	by the sonar thread, NaN before its first reading
 	 */
 	public float distance() {
-		/* Fetch sample for ultrasonic gives an array of one value */
-		float[] value = new float[1];
-		distanceSampleProvider.fetchSample(value, 0);
-		
-		/* We only return a float value, not the array */
-		return value[0];
+		return sonar.getDistance();
 	}
 
 	/**
 	 * Stop both motors
 	 */
 	public void stop() {
-		leftMotor.stop(true);
-		rightMotor.stop();
+		leftDriver.stop(true);
+		rightDriver.stop(false);
+	}
+
+	/**
+	 * Follow the speed plan sent by the train, if any
+	 * 
+	 * <p>Only used from the orange mark to the crossing.</p>
+	 * 
+	 * @return true if the plan set newSpeed, in percentage of the max speed
+	 */
+	protected boolean followSpeedProfile() {
+		if (!speedProfile.isActive()) {
+			return false;
+		}
+		/* Distance from both wheels, corrected for the slipping at each mark */
+		double odometer = odometry.getOdometer();
+		newSpeed = speedProfile.getSpeed(odometer);
+		if (speedProfile.getTravelled(odometer) >= Constants.DISTANCE_MARK_TO_CROSSING) {
+			speedProfile.stop();
+			speedPolynom = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Steer by slowing down one wheel
+	 * @param turn : between -1 and 1, positive to slow down the right wheel
+	 * 	(on white), 0.5 slows it down to half the speed as the politic does
+	 */
+	protected void steer(double turn) {
+		double speed = speedPercentage / 100;
+		leftDriver.setSpeed((float) (leftMotor.getMaxSpeed() * speed
+				* Math.min(1, 1 + turn)));
+		rightDriver.setSpeed((float) (rightMotor.getMaxSpeed() * speed
+				* Math.min(1, 1 - turn)));
+	}
+
+	/**
+	 * Change the way of following the line
+	 */
+	public void setSteering(SteeringPolitic steering) {
+		this.steering = steering;
+		steeringPid.reset();
 	}
 
 	/**
@@ -320,70 +496,75 @@ public abstract class GenericRobot {
 	 */
 	public void followLine() {
 		int politic = 0;
-		colorValue = getColor();
 		/* 
-		 * Detect color from sensor value
+		 * Detect color from sensor value, read during the sense phase
 		 * Set politic for blue, white or black behavior
 		 * Set orange flag 
 		 */
-		if (colorValue[0] > 0.1 && colorValue[1] > 0.1 && colorValue[2] > 0.1) {
-			politic = 0;
-			orange = false;
-			color = Color.WHITE;
-		} else if (colorValue[0] < 0.1 && colorValue[1] < 0.1
-				&& colorValue[2] < 0.1) {
+		color = colorTable.classify(colorValue);
+		switch (color) {
+		case Color.BLACK:
 			politic = -1;
 			orange = false;
-			color = Color.BLACK;
-		} else if (colorValue[0] >= 0.2 && colorValue[1] <= 0.10
-				&& colorValue[1] > 0.05 && colorValue[2] <= 0.05) {
+			break;
+		case Color.YELLOW:
 			politic = -1;
 			orange = true;
-			color = Color.YELLOW;
-		} else if (colorValue[0] >= 0.14 && colorValue[1] <= 0.10
-				&& colorValue[1] > 0.05 && colorValue[2] <= 0.05) {
+			break;
+		case Color.ORANGE:
 			politic = 1;
 			orange = true;
-			color = Color.ORANGE;
-		} else if (colorValue[0] <= 0.1 && colorValue[1] >= 0.1
-				&& colorValue[2] < 0.1) {
+			break;
+		case Color.BLUE:
 			politic = 1;
 			orange = false;
-			color = Color.BLUE;
-		} else {
+			break;
+		default:
+			/* White, or a color the table does not know */
 			politic = 0;
-			color = Color.NONE;
 			orange = false;
+			break;
+		}
+		if (steering == SteeringPolitic.PID && (color == Color.WHITE
+				|| color == Color.BLACK || color == Color.NONE)) {
+			/*
+			 * Between white and black, steer in proportion to the distance to
+			 * the edge. The marks are short, they keep the politic.
+			 */
+			float intensity = (colorValue[0] + colorValue[1] + colorValue[2]) / 3;
+			steer(steeringPid.update(intensity - Constants.EDGE_SETPOINT,
+					Constants.CONTROL_PERIOD_MS / 1000.));
+			/* Already steered, no politic to apply */
+			politic = 2;
 		}
 		/* Adjust each motor's speed using politic defined above */
 		switch (politic) {
 		case -1:
-			rightMotor.setSpeed((float) (rightMotor.getMaxSpeed()
+			rightDriver.setSpeed((float) (rightMotor.getMaxSpeed()
 					* speedPercentage / 100));
-			leftMotor.setSpeed((float) (leftMotor.getMaxSpeed()
+			leftDriver.setSpeed((float) (leftMotor.getMaxSpeed()
 					* speedPercentage / 2 / 100));
 			break;
 		case 0:
-			rightMotor.setSpeed((float) (rightMotor.getMaxSpeed()
+			rightDriver.setSpeed((float) (rightMotor.getMaxSpeed()
 					* speedPercentage / 2 / 100));
-			leftMotor.setSpeed((float) (leftMotor.getMaxSpeed()
+			leftDriver.setSpeed((float) (leftMotor.getMaxSpeed()
 					* speedPercentage / 100));
 			break;
 		case 1:
-			rightMotor.setSpeed((float) (rightMotor.getMaxSpeed()
+			rightDriver.setSpeed((float) (rightMotor.getMaxSpeed()
 					* speedPercentage / 100));
-			leftMotor.setSpeed((float) (leftMotor.getMaxSpeed()
+			leftDriver.setSpeed((float) (leftMotor.getMaxSpeed()
 					* speedPercentage / 100));
 			break;
 		default:
 			break;
 		}
 
-		/* Get position on the map */
-		int tachoR = rightMotor.getTachoCount();
-		currentCount = tachoR - previousTachoR + previousTachoL;
-		position += currentCount;
-		previousTachoR = tachoR;
+		/* Get position on the map, from both wheels */
+		odometry.update(leftMotor.getTachoCount(), rightMotor.getTachoCount());
+		currentCount = (int) Math.round(odometry.getLastArc());
+		position = (float) odometry.getPosition();
 		spin = position / 360;
 		
 		long currentTime = System.currentTimeMillis();
@@ -391,17 +572,19 @@ public abstract class GenericRobot {
 		 * Reach to orange mark and avoid having multiple calls for one mark 
 		 */
 		if (orange && currentTime - lastOrangeTimestamp > 2000) {
-			rightMotor.resetTachoCount();
+			/* The mark is at CIRCUIT_SIZE, correct the drift of the lap */
+			odometry.mark();
+			position = 0;
 			lastOrangeTimestamp = currentTime;
 			numberOfOrange++;
 			orangeMark();
 		}
 
-		/* Send the robot's main attributes to the train every 500ms */
-		if (currentTime - lastCoordinatesSent > 500) {
-			CarsBehavior behavior = new CarsBehavior(carId, speedPercentage,
-					dist, position, spin, numberOfOrange);
-			sendToItsTrain(new Message("coordinates", behavior));
+		/* Send the robot's main attributes to the train every 250ms */
+		if (currentTime - lastCoordinatesSent > Constants.COORDINATES_PERIOD_MS) {
+			coordinates.set(carId, speedPercentage, dist, position, spin,
+					numberOfOrange);
+			sendToItsTrain(coordinatesMessage);
 			lastCoordinatesSent = currentTime;
 		}
 
@@ -416,122 +599,34 @@ public abstract class GenericRobot {
 
 	/**
 	 * Send a message via UDP to a robot or a group of robot
+	 * 
+	 * <p>The message is only sent when flushMessages is called, together with
+	 * the other messages for the same destination.</p>
+	 * 
+	 * <p>Messages of the crossing protocol are sent again until they are
+	 * acknowledged.</p>
+	 * 
 	 * @param to : destination of the message
 	 * @param message to send
 	 */
 	protected void sendMessage(int to, Message message) {
-		MessageDatagram mD = new MessageDatagram(this.carId, to, message);
-
-		/* Loop for redundancy */
-		for (int i = 0; i < redundancy; i++) {
-
-			/* Create buffer */
-			ByteArrayOutputStream byteStream = new ByteArrayOutputStream(
-					Constants.PACKET_SIZE);
-			ObjectOutputStream os = null;
-			try {
-				os = new ObjectOutputStream(
-						new BufferedOutputStream(byteStream));
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-			try {
-				os.flush();
-				/* Fill buffer with serializable object */
-				os.writeObject(mD);
-				os.flush();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-			/* Convert buffer to an array of bytes */
-			byte[] sendBuf = byteStream.toByteArray();
-
-			/* Create UDP packet containing the byte array */
-			DatagramPacket packet = new DatagramPacket(sendBuf, sendBuf.length,
-					broadcastAddr, Constants.SOCKET_NUMBER);
-
-			try {
-				/* Send the packet */
-				listenSocket.send(packet);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+		messenger.sendMessage(to, message);
 	}
 
 	/**
-	 * Receive a message on the listenSocket
-	 * @return a MessageDatagram
-	 * @throws ClassNotFoundException
+	 * Send all messages produced since the last call, one packet per destination
+	 * 
+	 * <p>Called at the end of each iteration of the main loop.</p>
 	 */
-	public MessageDatagram receiveMessage() throws ClassNotFoundException {
-		/* Create buffer for receiving content of the packet */
-		byte[] buf = new byte[Constants.PACKET_SIZE];
-
-		/* Create packet */
-		DatagramPacket packet = new DatagramPacket(buf, Constants.PACKET_SIZE);
-
-		MessageDatagram m = null;
-		try {
-			/* Receive packet */
-			this.listenSocket.receive(packet);
-
-			/* If the packet is not empty */
-			if (packet.getLength() > 0) {
-				/* Convert byte array to byte buffer */
-				ByteArrayInputStream byteStream = new ByteArrayInputStream(buf);
-				ObjectInputStream is = null;
-				try {
-					is = new ObjectInputStream(new BufferedInputStream(
-							byteStream));
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-
-				Object o = null;
-				try {
-					/* Read object from packet content */
-					o = is.readObject();
-				} catch (IOException e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				} catch (ClassNotFoundException e2) {
-					e2.printStackTrace();
-				}
+	protected void flushMessages() {
+		messenger.flushMessages();
+	}
 
-				try {
-					is.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				if (o != null) {
-					m = (MessageDatagram) o;
-
-					/* 
-					 * Retrieve timestamp from the sending robot and compare it
-					 * with the content of the timestampLastMessageFrom map.
-					 * 
-					 * This allow us to check for redundancy and avoid processing
-					 * the same message twice.
-					 */
-					long time = m.getTimestamp();
-					Long mapTimestamp = this.timestampLastMessageFrom.get(m
-							.getFrom());
-
-					if (mapTimestamp == null
-							|| (mapTimestamp != null && time > mapTimestamp)) {
-						timestampLastMessageFrom.put(m.getFrom(), time);
-					} else {
-						m = null;
-					}
-				}
-			}
-		} catch (IOException e) {
-			
-		}
-		return m;
+	/**
+	 * Sending and receiving side of the robot, for its statistics
+	 */
+	public Messenger getMessenger() {
+		return messenger;
 	}
 
 	/**
@@ -542,136 +637,124 @@ public abstract class GenericRobot {
 		sendMessage(carId / 10 * 10 + 1, message);
 	}
 
+	/**
+	 * Start a clock synchronization with some robots, if it is time to
+	 * @param peers : ids of the robots
+	 */
+	protected void synchronizeClocks(int[] peers) {
+		messenger.synchronizeClocks(peers);
+	}
+
+	/**
+	 * Convert a time read on the clock of another robot to the local clock
+	 * 
+	 * <p>Until the clock of the sender is estimated, its times cannot be
+	 * compared to ours : only its age when the packet was sent is used,
+	 * counted from the reception of the packet. The transit is then
+	 * ignored, instead of the whole difference between the two clocks.</p>
+	 * 
+	 * @param m : message received from the robot
+	 * @param remoteTime : time on the clock of the robot
+	 * @return the time on the local clock
+	 */
+	protected long toLocalTime(Message m, long remoteTime) {
+		ClockSync clockSync = messenger.getClockSync();
+		if (!clockSync.isSynchronized(m.getFrom())) {
+			return m.getReceivedAt() - Math.max(0, m.getTimestamp() - remoteTime);
+		}
+		return clockSync.toLocal(m.getFrom(), remoteTime);
+	}
+
+	/**
+	 * Register the function processing one type of message
+	 * 
+	 * <p>Each role registers the messages it understands, replacing any
+	 * handler previously registered for the same opcode.</p>
+	 * 
+	 * @param opcode of the message
+	 * @param handler called for each message with this opcode
+	 */
+	protected void registerHandler(int opcode, MessageHandler handler) {
+		messenger.registerHandler(opcode, handler);
+	}
+
 	/**
 	 * Get all new messages from the mailbox
 	 */
-	@SuppressWarnings("unchecked")
 	public void getNewMessages() {
-		Message m = null;
-
-		/* Loop as long as the mailbox contains something */
-		while (!mailbox.isEmpty()) {
-			m = mailbox.poll();
-
-			Object o = m.getValue();
-			
-			/* 
-			 * Check key of the message
-			 * 
-			 * Knowing the key, we can cast the content to a certain type
-			 */
-			if (m.getKey().equals("trainInCrossing")) {
-				/* 
-				 * The train receives a message from its leader indicating
-				 * that it entered the crossing. 
-				 */
-				
-				LeaderRobot IamALeader = (LeaderRobot) this;
-				this.inCrossing = true;
-				IamALeader.broadcastMessageToOwnVehicules(new Message(
-						"inCrossing", null));
-				IamALeader
-						.sendToOtherTrain(new Message("warningCrossing", null));
-				IamALeader.broadcastMessageToOwnVehicules(new Message("speed",
-						Constants.TRAIN_CROSSING_SPEED));
-				IamALeader.broadcastMessageToOwnVehicules(new Message(
-						"safeDistance", Constants.TRAIN_CROSSING_DISTANCE));
-
-			} else if (m.getKey().equals("warningCrossing")) {
-				/*
-				 * The train receives a warning from the other train
-				 * indicating that the other train entered the crossing
-				 */
-				LeaderRobot IamALeader = (LeaderRobot) this;
-				IamALeader.otherTrainInCrossing = true;
-				if (inCrossing) {
-					IamALeader.sendToOtherTrain(new Message("carsMap",
-							IamALeader.carsMap));
-					IamALeader.sendToItsTrain(new Message("speed",Constants.TRAIN_NORMAL_SPEED/2));
-				}
-				Button.LEDPattern(2);
-			} else if (m.getKey().equals("inCrossing")) {
+		messenger.getNewMessages();
+	}
+
+	/**
+	 * Register the handlers of the messages common to all robots
+	 */
+	private void registerHandlers() {
+		registerHandler(Opcode.IN_CROSSING, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
 				/* 
 				 * The robot receives a message from its train indicating
 				 * that it entered the crossing. 
 				 */
-				this.inCrossing = true;
-				Button.LEDPattern(1);
-				Sound.playTone(1500, 100);
-				Sound.playTone(750, 100);
-			} else if (m.getKey().equals("trainOutOfCrossing")) {
-				/*
-				 * The train receives a message from its queue indicating that
-				 * it left the crossing
-				 */
-				LeaderRobot IamALeader = (LeaderRobot) this;
-				IamALeader.broadcastMessageToOwnVehicules(new Message(
-						"outCrossing", null));
-				IamALeader.broadcastMessageToOwnVehicules(new Message("speed",
-						Constants.TRAIN_NORMAL_SPEED));
-				IamALeader.broadcastMessageToOwnVehicules(new Message(
-						"safeDistance", Constants.TRAIN_NORMAL_DISTANCE));
-				if (IamALeader.inCrossing && IamALeader.otherTrainInCrossing) {
-					IamALeader.sendToOtherTrain(new Message(
-							"warningExitCrossing", null));
-				}
-				Button.LEDPattern(0);
-				Sound.playTone(1500, 100);
-				Sound.playTone(750, 100);
-			} else if (m.getKey().equals("warningExitCrossing")) {
-				/*
-				 * The train receives a message from the other train indicating
-				 * that the he is now alone in the crossing
-				 */
-				LeaderRobot IamALeader = (LeaderRobot) this;
-				IamALeader.otherTrainInCrossing = false;
-				IamALeader.sendToItsTrain(new Message("speed",Constants.TRAIN_NORMAL_SPEED));
-			} else if (m.getKey().equals("outCrossing")) {
+				inCrossing = true;
+				feedback.led(1);
+				feedback.tone(1500, 100);
+				feedback.tone(750, 100);
+			}
+		});
+		registerHandler(Opcode.OUT_CROSSING, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
 				/*
 				 * The robot receives a message from its train indicating
 				 * that it left the crossing.
 				 */
-				this.inCrossing = false;
-			} else if (m.getKey().equals("coordinates")) {
-				/*
-				 * The train receives the coordinate and speed of one of its
-				 * vehicule.
-				 */
-				LeaderRobot IamALeader = (LeaderRobot) this;
-				CarsBehavior behavior = (CarsBehavior) o;
-				IamALeader.carsMap.put(behavior.getId(), behavior);
-			} else if (m.getKey().equals("carsMap")) {
-				/*
-				 * The train receives the list of coordinates from all cars of the other train.
-				 * We use that information to prepare to pass the crossing and avoiding a conflict.
-				 */
-				LeaderRobot IamALeader = (LeaderRobot) this;
-
-				IamALeader.prepareCrossing((TreeMap<Integer, CarsBehavior>) o);
-			} else if (m.getKey().equals("speed")) {
+				inCrossing = false;
+			}
+		});
+		registerHandler(Opcode.SPEED, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
 				/*
 				 * The robot receives a speed order from its train
 				 */
-				double speed = (double) o;
-				speedToReach = speed;
-			} else if (m.getKey().equals("safeDistance")) {
-				/*
-				 * The robot receives a safeDistance order from its train
-				 */
-				if(!(this instanceof LeaderRobot)){
-					double safeD = (double) o;
-					MiddleRobot IamAMiddleRobot = (MiddleRobot)this;
-					IamAMiddleRobot.D = safeD;
-				}
+				speedToReach = m.getNumber();
 			}
-			else if (m.getKey().equals("speedPolynom")) {
+		});
+		registerHandler(Opcode.SPEED_POLYNOM, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
 				/* 
 				 * A speed polynom has been calculated by the train and sent to
 				 * its components
 				 */
-				this.speedPolynom = (SpeedPolynom) o;
-				this.speedPolynomTachoCount  = leftMotor.getTachoCount();
-			} else if (m.getKey().equals("debug")) {
+				speedPolynom = (SpeedPolynom) m.getValue();
+				/* The plan starts when it is received, computed once */
+				if (speedPolynom != null) {
+					speedPolynom.start(m.getReceivedAt());
+					speedProfile.build(speedPolynom, leftMotor.getMaxSpeed());
+					speedProfile.start(odometry.getOdometer());
+				} else {
+					speedProfile.stop();
+				}
+			}
+		});
+		registerHandler(Opcode.SPEED_PROFILE, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				/*
+				 * The train sent the speed plan as a table
+				 */
+				SpeedProfile profile = (SpeedProfile) m.getValue();
+				if (profile != null) {
+					speedProfile.set(profile);
+					speedProfile.start(odometry.getOdometer());
+				}
+			}
+		});
+		registerHandler(Opcode.DEBUG, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
 				/*
 				 * Debug message used to stop the robot and check transmission
 				 */
@@ -681,8 +764,7 @@ public abstract class GenericRobot {
 				while (true) {
 				}
 			}
-
-		}
+		});
 	}
 
 	/**
@@ -5,12 +5,12 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.TreeMap;
 
-import lejos.hardware.Button;
-import lejos.hardware.lcd.LCD;
 import utils.CarsBehavior;
 import utils.Constants;
 import utils.Message;
+import utils.Opcode;
 import utils.SpeedPolynom;
+import utils.SpeedProfile;
 
 /**
  * LeaderRobot class
@@ -23,6 +23,19 @@ import utils.SpeedPolynom;
 public class LeaderRobot extends GenericRobot {
 	/* Train's attributes */
 	private int otherTrainId;	
+	/* Robots whose clock is estimated : the cars of the train and the other leader */
+	private int[] clockPeers;
+	/* Speed plan sent as a table, see SHIP_SPEED_PROFILE */
+	private SpeedProfile shippedProfile = new SpeedProfile();
+	/* 
+	 * Speed measured on the odometer every ACCELERATION_WINDOW_MS, in m/s,
+	 * and its rate of change : the acceleration the plan starts with
+	 */
+	private final static long ACCELERATION_WINDOW_MS = 200;
+	private double windowOdometer = 0;
+	private long windowStart = 0;
+	private double measuredSpeed = Double.NaN;
+	private double measuredAcceleration = 0;
 	protected boolean otherTrainInCrossing;
 	/**
 	 * Map containing the coordinates (and speed) of the train's components 
@@ -40,6 +53,117 @@ public class LeaderRobot extends GenericRobot {
 		newSpeed = 0;
 		carsMap = new TreeMap<Integer, CarsBehavior>();
 		speedToReach = Constants.TRAIN_NORMAL_SPEED;
+		registerTrainHandlers();
+	}
+	
+	/**
+	 * Register the handlers of the messages managing the train
+	 */
+	private void registerTrainHandlers() {
+		registerHandler(Opcode.TRAIN_IN_CROSSING, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				/* 
+				 * The train receives a message from its leader indicating
+				 * that it entered the crossing. 
+				 */
+				inCrossing = true;
+				broadcastMessageToOwnVehicules(new Message(Opcode.IN_CROSSING, null));
+				sendToOtherTrain(new Message(Opcode.WARNING_CROSSING, null));
+				broadcastMessageToOwnVehicules(new Message(Opcode.SPEED,
+						Constants.TRAIN_CROSSING_SPEED));
+				broadcastMessageToOwnVehicules(new Message(Opcode.SAFE_DISTANCE,
+						Constants.TRAIN_CROSSING_DISTANCE));
+			}
+		});
+		registerHandler(Opcode.WARNING_CROSSING, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				/*
+				 * The train receives a warning from the other train
+				 * indicating that the other train entered the crossing
+				 */
+				otherTrainInCrossing = true;
+				if (inCrossing) {
+					sendToOtherTrain(new Message(Opcode.CARS_MAP, carsMap));
+					sendToItsTrain(new Message(Opcode.SPEED, Constants.TRAIN_NORMAL_SPEED/2));
+				}
+				feedback.led(2);
+			}
+		});
+		registerHandler(Opcode.TRAIN_OUT_OF_CROSSING, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				/*
+				 * The train receives a message from its queue indicating that
+				 * it left the crossing
+				 */
+				broadcastMessageToOwnVehicules(new Message(Opcode.OUT_CROSSING, null));
+				broadcastMessageToOwnVehicules(new Message(Opcode.SPEED,
+						Constants.TRAIN_NORMAL_SPEED));
+				broadcastMessageToOwnVehicules(new Message(Opcode.SAFE_DISTANCE,
+						Constants.TRAIN_NORMAL_DISTANCE));
+				if (inCrossing && otherTrainInCrossing) {
+					sendToOtherTrain(new Message(Opcode.WARNING_EXIT_CROSSING, null));
+				}
+				feedback.led(0);
+				feedback.tone(1500, 100);
+				feedback.tone(750, 100);
+			}
+		});
+		registerHandler(Opcode.WARNING_EXIT_CROSSING, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				/*
+				 * The train receives a message from the other train indicating
+				 * that the he is now alone in the crossing
+				 */
+				otherTrainInCrossing = false;
+				sendToItsTrain(new Message(Opcode.SPEED, Constants.TRAIN_NORMAL_SPEED));
+			}
+		});
+		registerHandler(Opcode.COORDINATES, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				/*
+				 * The train receives the coordinate and speed of one of its
+				 * vehicule.
+				 */
+				CarsBehavior behavior = (CarsBehavior) m.getValue();
+				/* Measured when the packet was sent, on the clock of the car */
+				behavior.setTimestamp(toLocalTime(m, m.getTimestamp()));
+				/* The behavior belongs to the message, so we keep a copy */
+				CarsBehavior known = carsMap.get(behavior.getId());
+				if (known == null) {
+					try {
+						carsMap.put(behavior.getId(), (CarsBehavior) behavior.clone());
+					} catch (CloneNotSupportedException e) {
+						e.printStackTrace();
+					}
+				} else {
+					known.set(behavior);
+				}
+			}
+		});
+		registerHandler(Opcode.CARS_MAP, new MessageHandler() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public void handle(Message m) {
+				/*
+				 * The train receives the list of coordinates from all cars of the other train.
+				 * We use that information to prepare to pass the crossing and avoiding a conflict.
+				 */
+				TreeMap<Integer, CarsBehavior> otherCars = (TreeMap<Integer, CarsBehavior>) m.getValue();
+				/* Times of the measures are on the clock of the other leader */
+				for (CarsBehavior behavior : otherCars.values()) {
+					if (behavior.getTimestamp() != 0) {
+						behavior.setTimestamp(toLocalTime(m,
+								behavior.getTimestamp()));
+					}
+				}
+				prepareCrossing(otherCars);
+			}
+		});
 	}
 	
 	/*
@@ -54,6 +178,7 @@ public class LeaderRobot extends GenericRobot {
 
 		leftMotor.resetTachoCount();
 		rightMotor.resetTachoCount();
+		odometry.reset(0, 0);
 		
 		/* Set other train's id */
 		if(carId == 11) {
@@ -62,48 +187,75 @@ public class LeaderRobot extends GenericRobot {
 		else if(carId == 21) {
 			otherTrainId = 11;
 		}
+		clockPeers = new int[] { carId + 1, carId + 2, otherTrainId };
 	
 		/* Main loop */
-		while(true) {
-			getNewMessages();
-			followLine();
-			
-			if (this.speedPolynom != null) {
-				/* 
-				 * If a speedPolynom is defined, computer the value of the function for the current time
-				 */
-				Button.LEDPattern(1);
-				this.newSpeed = this.speedPolynom.getValue(lastOrangeTimestamp)/100*leftMotor.getMaxSpeed() *Math.PI/180.*(Constants.WHEEL_SIZE/2.);;
-				/* Only consider the speed polynom for about 1500 deg of the wheel */
-				if(leftMotor.getTachoCount()-speedPolynomTachoCount >= Constants.DISTANCE_MARK_TO_CROSSING) {
-					speedPolynom = null;
-				}
-			} else {
-				Button.LEDPattern(3);
-				this.newSpeed = this.speedToReach;
-			}
-			
-			this.speedPercentage = newSpeed;
-			
-			/*
-			LCD.clear();
-			LCD.drawString("color : "+color, 1, 1);
-			LCD.drawString("color[0]:"+Float.toString(colorValue[0]),1,2);
-			LCD.drawString("color[1]:"+Float.toString(colorValue[1]),1,3);
-			LCD.drawString("color[2]:"+Float.toString(colorValue[2]),1,4);
-			//*/
-			
-			
-			LCD.drawString("position:"+Float.toString(position),1,1);
-			LCD.drawString(" tour : "+Float.toString(spin),1,2);
-			LCD.drawString(" orange = " + Integer.toString(numberOfOrange),1,3);
-			
-			LCD.drawString("current "+currentCount, 1,4);
-			LCD.drawString("crossing ? "+ inCrossing, 1, 5);
-			
-			forward();	// Apply change in motor's speeds
+		controlLoop.run();
+	}
+	
+	/*
+	 * One tick of the leader, between receiving and sending the messages
+	 * 
+	 * (non-Javadoc)
+	 * @see robot.GenericRobot#decide()
+	 */
+	@Override
+	protected void decide() {
+		followLine();
+		measureAcceleration();
+		
+		if (followSpeedProfile()) {
+			/* 
+			 * If a speed plan is defined, read its speed for the distance
+			 * travelled since it was received
+			 */
+			feedback.led(1);
+		} else {
+			feedback.led(3);
+			this.newSpeed = this.speedToReach;
 		}
 		
+		this.speedPercentage = newSpeed;
+		
+		/*
+		LCD.clear();
+		LCD.drawString("color : "+color, 1, 1);
+		LCD.drawString("color[0]:"+Float.toString(colorValue[0]),1,2);
+		LCD.drawString("color[1]:"+Float.toString(colorValue[1]),1,3);
+		LCD.drawString("color[2]:"+Float.toString(colorValue[2]),1,4);
+		//*/
+		
+		showStatus();
+		
+		synchronizeClocks(clockPeers);
+	}
+	
+	/**
+	 * Measure the speed of the train on the odometer, and its acceleration
+	 * 
+	 * <p>Over a window of several ticks, a tacho degree is only a few
+	 * millimeters per second.</p>
+	 */
+	private void measureAcceleration() {
+		long now = System.currentTimeMillis();
+		double odometer = odometry.getOdometer();
+		if (windowStart == 0) {
+			windowStart = now;
+			windowOdometer = odometer;
+			return;
+		}
+		long elapsed = now - windowStart;
+		if (elapsed < ACCELERATION_WINDOW_MS) {
+			return;
+		}
+		double speed = (odometer - windowOdometer) * Constants.WHEEL_PERIMETER
+				/ 360 / (elapsed / 1000.);
+		if (!Double.isNaN(measuredSpeed)) {
+			measuredAcceleration = (speed - measuredSpeed) / (elapsed / 1000.);
+		}
+		measuredSpeed = speed;
+		windowStart = now;
+		windowOdometer = odometer;
 	}
 	
 	/**
@@ -130,7 +282,7 @@ public class LeaderRobot extends GenericRobot {
 	@Override
 	public void orangeMark() {
 		/* Send message to the train */
-		sendToItsTrain(new Message("trainInCrossing", null));
+		sendToItsTrain(new Message(Opcode.TRAIN_IN_CROSSING, null));
 		inCrossing = true;
 	}
 	
@@ -147,7 +299,7 @@ public class LeaderRobot extends GenericRobot {
 			e.printStackTrace();
 		}
 		
-		Button.LEDPattern(1);
+		feedback.led(1);
 		
 		/* Define variables used for conflict management */
 		Double minTime = null;
@@ -161,6 +313,15 @@ public class LeaderRobot extends GenericRobot {
 		TreeMap<Integer, Double> timeLeft = new TreeMap<Integer, Double>();
 		double otherTrainAverageSpeed = 0;
 		
+		/* Bring every measure to the current time, using the speed of the car */
+		long now = System.currentTimeMillis();
+		for (CarsBehavior behavior : otherCars.values()) {
+			double degreesPerSecond = behavior.getSpeed() / 100 * leftMotor.getMaxSpeed();
+			behavior.setPosition(behavior.getPosition()
+					+ degreesPerSecond * behavior.getAge(now) / 1000.);
+			behavior.setTimestamp(now);
+		}
+		
 		int j = 0;
 		double myDistanceToCrossing = (Constants.MARK_CROSSING-position)*Constants.WHEEL_PERIMETER/360;
 		double myRealSpeed = this.speedPercentage/100*leftMotor.getMaxSpeed() *Math.PI/180.*(Constants.WHEEL_SIZE/2.);
@@ -281,14 +442,26 @@ public class LeaderRobot extends GenericRobot {
 				speedPol.setCoeff(0, adjustSpeed);
 			}
 			else {
-				speedPol = new SpeedPolynom();
-				speedPol.interpolation(myRealSpeed, otherTrainSpeed, myDistanceToCrossing, optimalTime);
+				/* 
+				 * Start with the current acceleration, so the plan does not
+				 * jerk the train, and reach the crossing at a steady speed
+				 */
+				speedPol = new SpeedPolynom(4);
+				speedPol.interpolation(myRealSpeed, otherTrainSpeed,
+						myDistanceToCrossing, optimalTime, measuredAcceleration, 0);
+				writer.println("acceleration0 :" + measuredAcceleration);
 			}
 			/* Convert speed to m/s */
 			@SuppressWarnings("unused")
 			double speedOrder = adjustSpeed/(leftMotor.getMaxSpeed() *Math.PI/180.*(Constants.WHEEL_SIZE/2.))*100;
-			broadcastMessageToOwnVehicules(new Message("speedPolynom", speedPolynom));
-			broadcastMessageToOwnVehicules(new Message("speed", firstOtherCarBehavior.getSpeed()));
+			if (Constants.SHIP_SPEED_PROFILE) {
+				/* Send the table itself, computed here once for the whole train */
+				shippedProfile.build(speedPol, leftMotor.getMaxSpeed());
+				broadcastMessageToOwnVehicules(new Message(Opcode.SPEED_PROFILE, shippedProfile));
+			} else {
+				broadcastMessageToOwnVehicules(new Message(Opcode.SPEED_POLYNOM, speedPol));
+			}
+			broadcastMessageToOwnVehicules(new Message(Opcode.SPEED, firstOtherCarBehavior.getSpeed()));
 		}
 		else {
 			writer.println("No first car !");
@@ -299,7 +472,7 @@ public class LeaderRobot extends GenericRobot {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		Button.LEDPattern(0);
+		feedback.led(0);
 	}
 	
 }
@@ -0,0 +1,25 @@
+package robot;
+
+import utils.Message;
+
+/**
+ * MessageHandler interface
+ *
+ * <p>Processing of one type of message, registered by a robot against the
+ * opcode of the message.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public interface MessageHandler {
+
+	/**
+	 * Process a message taken from the mailbox
+	 *
+	 * <p>The message is reused once this function returns, so its content
+	 * has to be copied if it is kept.</p>
+	 *
+	 * @param message received
+	 */
+	void handle(Message message);
+}
@@ -0,0 +1,499 @@
+package robot;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import network.AddressBook;
+import network.ClockSync;
+import network.DuplicateFilter;
+import network.LinkQuality;
+import network.MessageCodec;
+import network.MessagePool;
+import network.OutboundBatcher;
+import network.RedundancyController;
+import network.ReliableSender;
+import network.Transport;
+import utils.Constants;
+import utils.Mailbox;
+import utils.Message;
+import utils.MessageDatagram;
+import utils.Opcode;
+
+/**
+ * Messenger class
+ *
+ * <p>Messaging of a robot, without its motors nor its sensors : packets are
+ * received by the network thread of the transport, their messages are put in
+ * the mailbox, and processed by the robot thread with getNewMessages. Every
+ * message is given to the handler registered for its opcode.</p>
+ *
+ * <p>The acknowledgements of the reliable messages and of the keyframes, and
+ * the clock synchronization, are handled here for every role.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class Messenger implements Transport.PacketListener {
+
+	/* Identity of the robot, known once opened */
+	private int carId;
+
+	/* Non-blocking socket with its own thread, or simulated network */
+	private Transport transport;
+	/* Multicast group of each train, or address of each car */
+	private AddressBook addresses;
+	/*
+	 * All messages can be sent multiple times in order to avoid lost packages.
+	 * The number of copies depends on the loss measured on each link.
+	 */
+	private LinkQuality linkQuality = new LinkQuality();
+	private RedundancyController redundancy = new RedundancyController(
+			linkQuality);
+	/* Messages sent during an iteration, grouped by destination */
+	private OutboundBatcher batcher;
+	/* Acknowledged delivery of the crossing protocol */
+	private ReliableSender reliableSender;
+	/* Drops the retransmissions of the reliable messages already processed */
+	private DuplicateFilter deliveryFilter = new DuplicateFilter();
+	private Message ack = new Message(Opcode.ACK, null);
+	/* Estimated clocks of the other robots */
+	private ClockSync clockSync = new ClockSync();
+	private Message timeRequest = new Message(Opcode.TIME_REQUEST, null);
+	private Message timeResponse = new Message(Opcode.TIME_RESPONSE, null);
+	/* Drops the copies of the messages already received */
+	private DuplicateFilter duplicateFilter = new DuplicateFilter();
+	/* Binary encoding of the packets */
+	private MessageCodec codec = new MessageCodec();
+	private Message keyframeAck = new Message(Opcode.COORDINATES_ACK, null);
+
+	/*
+	 * Receiving side, reused for every packet : the network thread does
+	 * not allocate anything for speed orders and coordinates
+	 */
+	private MessageDatagram receivedDatagram = new MessageDatagram();
+	/* Messages of the packet being decoded, delivered once all are decoded */
+	private Message[] staging = new Message[MessageCodec.MAX_MESSAGES];
+	private MessagePool messagePool = new MessagePool(
+			Constants.MESSAGE_POOL_SIZE);
+	/* Messages dropped because the pool was empty */
+	private volatile long droppedMessages = 0;
+	/* Packets dropped from their header alone, and packets decoded */
+	private volatile long earlyDroppedPackets = 0;
+	private volatile long acceptedPackets = 0;
+
+	/*
+	 * Mail box of received messages, keeping only the last coordinates,
+	 * speed and safe distance. Large enough for every message of the pool.
+	 */
+	private Mailbox mailbox = new Mailbox(Constants.MESSAGE_POOL_SIZE);
+
+	/* Functions processing the received messages, indexed by opcode */
+	private MessageHandler[] handlers = new MessageHandler[Opcode.COUNT];
+
+	/**
+	 * Messenger of a robot, handlers can be registered before it is opened
+	 */
+	public Messenger() {
+		registerHandlers();
+	}
+
+	/**
+	 * Start sending and receiving packets
+	 *
+	 * <p>Only the packets of the train of the robot, and between leaders,
+	 * are received.</p>
+	 *
+	 * @param carId : id of the robot
+	 * @param transport : created with this messenger as its listener
+	 * @throws IOException if the transport cannot be opened
+	 */
+	public void open(int carId, Transport transport) throws IOException {
+		this.carId = carId;
+		this.transport = transport;
+		addresses = new AddressBook(carId);
+		batcher = new OutboundBatcher(carId, transport, codec, redundancy,
+				addresses);
+		reliableSender = new ReliableSender(batcher);
+		transport.open();
+		transport.join(AddressBook.trainGroup(carId / 10));
+		if (carId % 10 == 1) {
+			transport.join(AddressBook.leadersGroup());
+		}
+	}
+
+	/**
+	 * Filter incoming message to only get messages assigned to the robot
+	 * @param to : receiver of the packet, read from its header
+	 * @return boolean : true if the messages of the packet are for the robot
+	 */
+	private boolean filterMessage(int to) {
+		/* If the message is for me or for all cars within my train */
+		return to == carId || (to % 10 == 0 && to == carId / 10 * 10);
+	}
+
+	/**
+	 * Send a message via UDP to a robot or a group of robot
+	 *
+	 * <p>The message is only sent when flushMessages is called, together with
+	 * the other messages for the same destination.</p>
+	 *
+	 * <p>Messages of the crossing protocol are sent again until they are
+	 * acknowledged.</p>
+	 *
+	 * @param to : destination of the message
+	 * @param message to send
+	 */
+	public void sendMessage(int to, Message message) {
+		if (reliableSender.isReliable(message.getOpcode())) {
+			reliableSender.send(to, message);
+		} else {
+			batcher.add(to, message);
+		}
+	}
+
+	/**
+	 * Send all messages produced since the last call, one packet per destination
+	 *
+	 * <p>Called at the end of each iteration of the main loop.</p>
+	 */
+	public void flushMessages() {
+		reliableSender.retransmit();
+		batcher.flush();
+	}
+
+	/**
+	 * Decode the header of a packet received by the transport
+	 *
+	 * <p>The same datagram is returned for every packet.</p>
+	 *
+	 * @param packet : content of the packet, left at its first message
+	 * @return a MessageDatagram, or null if the packet is not valid
+	 */
+	public MessageDatagram receiveMessage(ByteBuffer packet) {
+		/* Read datagram from packet content */
+		if (codec.decodeHeader(packet, receivedDatagram)) {
+			return receivedDatagram;
+		}
+		return null;
+	}
+
+	/**
+	 * Check the routing fields of a packet, before decoding it
+	 *
+	 * <p>Packets for another car, or holding a single message this role
+	 * has no handler for, are dropped here : most of the traffic of the
+	 * train never goes further than a few byte reads.</p>
+	 *
+	 * @param packet : content of the packet, left untouched
+	 * @param sender : address the packet comes from
+	 * @return true if the packet has to be decoded
+	 */
+	private boolean routePacket(ByteBuffer packet, SocketAddress sender) {
+		if (!MessageCodec.peekValid(packet)) {
+			return false;
+		}
+		int from = MessageCodec.peekFrom(packet);
+		int to = MessageCodec.peekTo(packet);
+		if (from < 0 || from >= Constants.MAX_CAR_ID || to < 0
+				|| to >= Constants.MAX_CAR_ID) {
+			return false;
+		}
+
+		/* Measure the loss on the link, before discarding any copy */
+		linkQuality.observe(from, to, MessageCodec.peekSequence(packet),
+				MessageCodec.peekCopies(packet));
+		/* Learn where the sender is, for point-to-point messages */
+		addresses.learn(from, sender);
+
+		/* Own packets come back through the group */
+		if (from == carId || !filterMessage(to)) {
+			earlyDroppedPackets++;
+			return false;
+		}
+		int opcode = MessageCodec.peekOpcode(packet);
+		if (MessageCodec.peekCount(packet) == 1 && (opcode <= Opcode.UNKNOWN
+				|| opcode >= Opcode.COUNT || handlers[opcode] == null)) {
+			earlyDroppedPackets++;
+			return false;
+		}
+		acceptedPackets++;
+		return true;
+	}
+
+	/**
+	 * Put the messages of a packet received by the transport in the mailbox
+	 *
+	 * <p>Messages come from the message pool. All messages of a packet are
+	 * delivered, or none of them.</p>
+	 *
+	 * @param packet : content of the packet
+	 * @param sender : address the packet comes from
+	 */
+	@Override
+	public void onPacket(ByteBuffer packet, SocketAddress sender) {
+		long receivedAt = System.currentTimeMillis();
+		if (!routePacket(packet, sender)) {
+			return;
+		}
+		MessageDatagram frame = receiveMessage(packet);
+		if (frame == null) {
+			return;
+		}
+
+		/* The mailbox is as large as the pool, so only the pool is checked */
+		if (messagePool.available() < frame.getCount()) {
+			/*
+			 * Drop the whole packet before marking it as received, one of
+			 * its copies may still be accepted later
+			 */
+			droppedMessages += frame.getCount();
+			return;
+		}
+
+		/* Copies already received are not even decoded */
+		if (duplicateFilter.isDropped(frame.getFrom(), frame.getTo(),
+				frame.getSequence())) {
+			return;
+		}
+
+		/* Decode the whole packet before delivering any of its messages */
+		int count = frame.getCount();
+		for (int i = 0; i < count; i++) {
+			Message content = messagePool.acquire();
+			content.setFrom(frame.getFrom());
+			content.setTimestamp(frame.getTimestamp());
+			content.setReceivedAt(receivedAt);
+			staging[i] = content;
+			if (!codec.decodeMessage(packet, content)) {
+				/* Truncated or corrupted : a copy may still be accepted later */
+				recycleStaging(i + 1);
+				return;
+			}
+		}
+
+		/*
+		 * Only a packet decoded entirely is marked as received : check its
+		 * sequence number against the ones already received from the
+		 * sending robot, so the same message is never processed twice.
+		 */
+		if (!duplicateFilter.accept(frame.getFrom(), frame.getTo(),
+				frame.getSequence())) {
+			recycleStaging(count);
+			return;
+		}
+
+		for (int i = 0; i < count; i++) {
+			Message content = staging[i];
+			staging[i] = null;
+			if (content.getOpcode() == Opcode.UNKNOWN) {
+				/* Coordinates encoded against a keyframe never received */
+				messagePool.recycle(content);
+				continue;
+			}
+			/*
+			 * The content now belongs to the mailbox, which gives back the
+			 * older value it replaced
+			 */
+			Message replaced = mailbox.offer(content);
+			if (replaced != null) {
+				messagePool.recycle(replaced);
+			}
+		}
+	}
+
+	/**
+	 * Give the first staged messages of a packet back to the pool
+	 * @param count : number of messages staged
+	 */
+	private void recycleStaging(int count) {
+		for (int i = 0; i < count; i++) {
+			messagePool.recycle(staging[i]);
+			staging[i] = null;
+		}
+	}
+
+	/**
+	 * Register the function processing one type of message
+	 *
+	 * <p>Each role registers the messages it understands, replacing any
+	 * handler previously registered for the same opcode.</p>
+	 *
+	 * @param opcode of the message
+	 * @param handler called for each message with this opcode
+	 */
+	public void registerHandler(int opcode, MessageHandler handler) {
+		handlers[opcode] = handler;
+	}
+
+	/**
+	 * Get all new messages from the mailbox, and process them
+	 */
+	public void getNewMessages() {
+		Message m = null;
+
+		/* Loop as long as the mailbox contains something */
+		while ((m = mailbox.poll()) != null) {
+			/*
+			 * Acknowledge every copy of a reliable message, the sender may
+			 * not have received the previous acknowledgement. An ack carries
+			 * the id it acknowledges, it is never acknowledged itself.
+			 */
+			boolean retransmission = false;
+			if (m.getDeliveryId() != 0 && m.getOpcode() != Opcode.ACK) {
+				ack.setDeliveryId(m.getDeliveryId());
+				sendMessage(m.getFrom(), ack);
+				retransmission = !deliveryFilter.accept(m.getFrom(), carId,
+						m.getDeliveryId());
+			}
+
+			/* Messages without handler are not meant for this role */
+			MessageHandler handler = handlers[m.getOpcode()];
+			if (handler != null && !retransmission) {
+				handler.handle(m);
+			}
+
+			/* Later coordinates from this car are encoded against this keyframe */
+			if (m.getOpcode() == Opcode.COORDINATES && m.getKeyframe() != 0) {
+				keyframeAck.setKeyframe(m.getKeyframe());
+				sendMessage(m.getFrom(), keyframeAck);
+			}
+
+			/* The message can be reused by the network thread */
+			messagePool.release(m);
+		}
+	}
+
+	/**
+	 * Start a clock synchronization with some robots, if it is time to
+	 * @param peers : ids of the robots
+	 */
+	public void synchronizeClocks(int[] peers) {
+		if (!clockSync.isDue(System.currentTimeMillis())) {
+			return;
+		}
+		for (int peer : peers) {
+			sendMessage(peer, timeRequest);
+		}
+	}
+
+	/**
+	 * Register the handlers of the messages used by the messaging itself
+	 */
+	private void registerHandlers() {
+		registerHandler(Opcode.COORDINATES_ACK, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				/*
+				 * The train received a keyframe of my coordinates, the next
+				 * ones only carry what changed since
+				 */
+				codec.acknowledgeKeyframe(m.getFrom(), m.getKeyframe());
+			}
+		});
+		registerHandler(Opcode.ACK, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				/*
+				 * A reliable message reached its destination
+				 */
+				reliableSender.acknowledge(m.getFrom(), m.getDeliveryId());
+			}
+		});
+		registerHandler(Opcode.TIME_REQUEST, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				/*
+				 * A leader asks for my clock : give back when its request
+				 * was sent and when I received it. The time of my response
+				 * is the timestamp of its packet.
+				 */
+				timeResponse.setRequestSent(m.getTimestamp());
+				timeResponse.setRequestReceived(m.getReceivedAt());
+				sendMessage(m.getFrom(), timeResponse);
+			}
+		});
+		registerHandler(Opcode.TIME_RESPONSE, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				clockSync.sample(m.getFrom(), m.getRequestSent(),
+						m.getRequestReceived(), m.getTimestamp(),
+						m.getReceivedAt());
+			}
+		});
+	}
+
+	/**
+	 * Estimated clocks of the other robots
+	 */
+	public ClockSync getClockSync() {
+		return clockSync;
+	}
+
+	/**
+	 * Acknowledged delivery of the crossing protocol, for its delivery
+	 * latency and retransmission statistics
+	 */
+	public ReliableSender getReliableSender() {
+		return reliableSender;
+	}
+
+	/**
+	 * Number of objects allocated by the network thread since it started
+	 *
+	 * <p>It should not increase anymore once the robot runs steadily.</p>
+	 */
+	public long getReceiveAllocations() {
+		return codec.getAllocations();
+	}
+
+	/**
+	 * Number of received messages dropped because the mailbox was full
+	 */
+	public long getMailboxOverflows() {
+		return mailbox.getOverflows();
+	}
+
+	/**
+	 * Number of received messages replaced by a newer value before being
+	 * processed
+	 */
+	public long getCoalescedMessages() {
+		return mailbox.getCoalesced();
+	}
+
+	/**
+	 * Number of packets dropped by looking at their header only
+	 */
+	public long getEarlyDroppedPackets() {
+		return earlyDroppedPackets;
+	}
+
+	/**
+	 * Number of packets for this robot, whose messages were decoded
+	 */
+	public long getAcceptedPackets() {
+		return acceptedPackets;
+	}
+
+	/**
+	 * Number of received messages dropped because the pool was empty
+	 */
+	public long getDroppedMessages() {
+		return droppedMessages;
+	}
+
+	/**
+	 * Number of messages the batcher could not send
+	 */
+	public long getUnsentMessages() {
+		return batcher.getDroppedMessages();
+	}
+
+	/**
+	 * Number of copies dropped as duplicates
+	 */
+	public long getDuplicates() {
+		return duplicateFilter.getDuplicates();
+	}
+}
@@ -1,8 +1,8 @@
 package robot;
 
-import lejos.hardware.Button;
-import lejos.hardware.lcd.LCD;
 import utils.Constants;
+import utils.Message;
+import utils.Opcode;
 
 /**
  * MiddleRobot class
@@ -40,6 +40,16 @@ public class MiddleRobot extends GenericRobot {
 		 */
 		a = 100.;
 		D = 0.30;	/* Inter-distance between two cars */
+		
+		registerHandler(Opcode.SAFE_DISTANCE, new MessageHandler() {
+			@Override
+			public void handle(Message m) {
+				/*
+				 * The robot receives a safeDistance order from its train
+				 */
+				D = m.getNumber();
+			}
+		});
 	}
 	
 	/*
@@ -57,52 +67,81 @@ public class MiddleRobot extends GenericRobot {
 
 		leftMotor.resetTachoCount();
 		rightMotor.resetTachoCount();
-		while(true) {
-			getNewMessages();
+		odometry.reset(0, 0);
+		controlLoop.run();
+	}
+
+	/*
+	 * The sonar is slow, it is read by its own thread
+	 * 
+	 * (non-Javadoc)
+	 * @see robot.GenericRobot#startSensors()
+	 */
+	@Override
+	protected void startSensors() {
+		sonar.start();
+		/* Do not start moving without knowing what is in front */
+		sonar.awaitFirstReading(Constants.SONAR_PERIOD_MS
+				* Constants.SONAR_WINDOW);
+	}
+
+	/*
+	 * Read the distance to the car in front too, as last filtered by the
+	 * sonar thread
+	 * 
+	 * (non-Javadoc)
+	 * @see robot.GenericRobot#sense()
+	 */
+	@Override
+	protected void sense() {
+		super.sense();
+		float distance = distance();
+		/* Until the sonar has a reading, keep the last distance */
+		if (!Float.isNaN(distance)) {
+			dist = distance;
+		}
+	}
+
+	/*
+	 * One tick of the car, between receiving and sending the messages
+	 * 
+	 * (non-Javadoc)
+	 * @see robot.GenericRobot#decide()
+	 */
+	@Override
+	protected void decide() {
+		followLine();
+		/*
+		if(inCrossing) {
 			
-			followLine();
-			/*
-			if(inCrossing) {
-				
-				} else {
-					Button.LEDPattern(3);
-					this.newSpeed = this.speedToReach;
-				}
-				this.speedPercentage = newSpeed;
+			} else {
+				feedback.led(3);
+				this.newSpeed = this.speedToReach;
 			}
+			this.speedPercentage = newSpeed;
+		}
 		//*/
-			if (this.speedPolynom != null) {
-				/* 
-				 * If a speedPolynom is defined, computer the value of the function for the current time
-				 */
-				Button.LEDPattern(1);
-				this.newSpeed = this.speedPolynom.getValue(lastOrangeTimestamp)/100*leftMotor.getMaxSpeed() *Math.PI/180.*(Constants.WHEEL_SIZE/2.);;
-				if(leftMotor.getTachoCount()-speedPolynomTachoCount >= 1500) {
-					speedPolynom = null;
-				}
-			}
-			else {
-				Button.LEDPattern(5);
-				selectSpeedPercentage();				
-			}
-			
-			
-			LCD.drawString("position:"+Float.toString(position),1,1);
-			LCD.drawString(" tour : "+Float.toString(spin),1,2);
-			LCD.drawString(" orange = " + Integer.toString(numberOfOrange),1,3);
-			
-			LCD.drawString("current "+currentCount, 1,4);
-			LCD.drawString("crossing ? "+ inCrossing, 1, 5);
-
-			forward();	// Apply motor's speeds
+		if (followSpeedProfile()) {
+			/* 
+			 * If a speed plan is defined, read its speed for the distance
+			 * travelled since it was received
+			 */
+			feedback.led(1);
+			this.speedPercentage = newSpeed;
 		}
+		else {
+			feedback.led(5);
+			selectSpeedPercentage();				
+		}
+		
+		showStatus();
 	}
 
 	/**
 	 * Select speed percentage for each motor's using the distance sensor
 	 */
 	protected void selectSpeedPercentage() {
-		dist = distance();
+		/* dist has been read during the sense phase */
 		switch(currentPolitic) {
 		case ALL_OR_NOTHING:
 			/* 
@@ -1,9 +1,7 @@
 package robot;
 
-import lejos.hardware.Button;
-import lejos.hardware.lcd.LCD;
-import utils.Constants;
 import utils.Message;
+import utils.Opcode;
 
 /**
  * QueueRobot class
@@ -39,50 +37,49 @@ public class QueueRobot extends MiddleRobot {
 
 		leftMotor.resetTachoCount();
 		rightMotor.resetTachoCount();
-		while(true) {
-			getNewMessages();
-			
-			followLine();
-			
-			if (this.speedPolynom != null) {
-				/* 
-				 * If a speedPolynom is defined, computer the value of the function for the current time
-				 */
-				Button.LEDPattern(1);
-				this.newSpeed = this.speedPolynom.getValue(lastOrangeTimestamp)/100*leftMotor.getMaxSpeed() *Math.PI/180.*(Constants.WHEEL_SIZE/2.);
-				if(leftMotor.getTachoCount()-speedPolynomTachoCount >= 1500) {
-					speedPolynom = null;
-				}
-			}
-			else {
-				Button.LEDPattern(5);
-				selectSpeedPercentage();				
-			}
-			
-			/* When we have left the crossing, send a message to the train */
-			if(inCrossing && inCrossingMyself && spin > 6 && spin < 7) {
-				inCrossing = false;
-				inCrossingMyself = false;
-				sendToItsTrain(new Message("trainOutOfCrossing",null));
-			}
-			//*/
-			
-			/*
-			LCD.clear();
-			LCD.drawString("color : "+color, 1, 1);
-			LCD.drawString("color[0]:"+Float.toString(colorValue[0]),1,2);
-			LCD.drawString("color[1]:"+Float.toString(colorValue[1]),1,3);
-			LCD.drawString("color[2]:"+Float.toString(colorValue[2]),1,4);
-			//*/
-			LCD.drawString("position:"+Float.toString(position),1,1);
-			LCD.drawString(" tour : "+Float.toString(spin),1,2);
-			LCD.drawString(" orange = " + Integer.toString(numberOfOrange),1,3);
-			
-			LCD.drawString("current "+currentCount, 1,4);
-			LCD.drawString("crossing ? "+ inCrossing, 1, 5);
-			
-			forward();	// Apply each motor's speed
+		odometry.reset(0, 0);
+		controlLoop.run();
+	}
+
+	/*
+	 * One tick of the queue, which also detects the end of the crossing
+	 * 
+	 * (non-Javadoc)
+	 * @see robot.MiddleRobot#decide()
+	 */
+	@Override
+	protected void decide() {
+		followLine();
+		
+		if (followSpeedProfile()) {
+			/* 
+			 * If a speed plan is defined, read its speed for the distance
+			 * travelled since it was received
+			 */
+			feedback.led(1);
+			this.speedPercentage = newSpeed;
+		}
+		else {
+			feedback.led(5);
+			selectSpeedPercentage();				
+		}
+		
+		/* When we have left the crossing, send a message to the train */
+		if(inCrossing && inCrossingMyself && spin > 6 && spin < 7) {
+			inCrossing = false;
+			inCrossingMyself = false;
+			sendToItsTrain(new Message(Opcode.TRAIN_OUT_OF_CROSSING, null));
 		}
+		//*/
+		
+		/*
+		LCD.clear();
+		LCD.drawString("color : "+color, 1, 1);
+		LCD.drawString("color[0]:"+Float.toString(colorValue[0]),1,2);
+		LCD.drawString("color[1]:"+Float.toString(colorValue[1]),1,3);
+		LCD.drawString("color[2]:"+Float.toString(colorValue[2]),1,4);
+		//*/
+		showStatus();
 	}
 	
 	/**
@@ -24,6 +24,8 @@ public class CarsBehavior implements Serializable, Cloneable {
 	private double position;
 	private double spin;
 	private int orangeNumber;
+	/* Local time the attributes were measured, 0 if unknown */
+	private long timestamp;
 	
 	/**
 	 *  Constructor 
@@ -37,6 +39,27 @@ public class CarsBehavior implements Serializable, Cloneable {
 		this.orangeNumber = orangeNumber;
 	}
 	
+	/**
+	 * Copy all attributes of another behavior
+	 * @param other : behavior to copy
+	 */
+	public void set(CarsBehavior other) {
+		set(other.id, other.speed, other.distance, other.position, other.spin, other.orangeNumber);
+		this.timestamp = other.timestamp;
+	}
+	
+	/**
+	 * Set all attributes at once
+	 */
+	public void set(int id, double speed, double distance, double position, double spin, int orangeNumber) {
+		this.id = id;
+		this.speed = speed;
+		this.distance = distance;
+		this.position = position;
+		this.spin = spin;
+		this.orangeNumber = orangeNumber;
+	}
+	
 	/* Setters and getters */
 	
 	public double getPosition() {
@@ -87,6 +110,21 @@ public class CarsBehavior implements Serializable, Cloneable {
 	public void setDistance(double distance) {
 		this.distance = distance;
 	}
+	public long getTimestamp() {
+		return timestamp;
+	}
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+	
+	/**
+	 * Time since the attributes were measured
+	 * @param now : local time
+	 * @return age in milliseconds, 0 if the time of the measure is unknown
+	 */
+	public long getAge(long now) {
+		return timestamp == 0 ? 0 : Math.max(0, now - timestamp);
+	}
 	
 	
 
@@ -0,0 +1,217 @@
+package utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import lejos.robotics.Color;
+
+/**
+ * ColorTable class
+ *
+ * <p>Classifies the RGB samples of the color sensor with a lookup table :
+ * each channel is quantized on BITS bits over [0, RANGE], and the three
+ * indices address a table holding the color of that cell. Classifying a
+ * sample costs a single array access, whatever the number of colors.</p>
+ *
+ * <p>The table is built from labeled samples recorded on the track
+ * (calibration) : each cell takes the color of the nearest sample, or
+ * Color.NONE if no sample is within MAX_DISTANCE. It is saved to the flash
+ * of the robot, and loaded when the robot starts. Without a calibration,
+ * the samples are compared to the thresholds tuned by hand, as they are :
+ * the cells of the table are too coarse to hold them exactly.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class ColorTable {
+
+	/* Quantization of each channel */
+	public final static int BITS = 5;
+	public final static float RANGE = 0.4f;
+	private final static int LEVELS = 1 << BITS;
+	private final static float SCALE = LEVELS / RANGE;
+
+	/* Largest distance between a cell and the nearest sample of its color */
+	public final static float MAX_DISTANCE = 0.05f;
+
+	/* Colors of the track, in the order they are calibrated */
+	public final static int[] COLORS = { Color.WHITE, Color.BLACK, Color.BLUE,
+			Color.ORANGE, Color.YELLOW };
+	public final static String[] NAMES = { "white", "black", "blue", "orange",
+			"yellow" };
+
+	/* Header of the file */
+	private final static int MAGIC = 0x434F4C54;
+
+	private final byte[] table = new byte[LEVELS * LEVELS * LEVELS];
+	/* Set once the table is built or loaded */
+	private boolean calibrated = false;
+
+	/* Labeled samples of the calibration */
+	private final float[] samples;
+	private final byte[] labels;
+	private int count = 0;
+
+	/**
+	 * Constructor, the thresholds tuned by hand are used until the table is
+	 * built or loaded
+	 * @param maxSamples : number of samples kept for a calibration
+	 */
+	public ColorTable(int maxSamples) {
+		samples = new float[maxSamples * 3];
+		labels = new byte[maxSamples];
+	}
+
+	/**
+	 * Color of a sample
+	 * @param rgb : sample of the sensor in RGB mode
+	 * @return one of the Color constants, Color.NONE if unknown
+	 */
+	public int classify(float[] rgb) {
+		if (!calibrated) {
+			return thresholds(rgb[0], rgb[1], rgb[2]);
+		}
+		return table[(quantize(rgb[0]) << (2 * BITS))
+				| (quantize(rgb[1]) << BITS) | quantize(rgb[2])];
+	}
+
+	private static int quantize(float value) {
+		int level = (int) (value * SCALE);
+		return level < 0 ? 0 : level >= LEVELS ? LEVELS - 1 : level;
+	}
+
+	private static float center(int level) {
+		return (level + 0.5f) / SCALE;
+	}
+
+	/**
+	 * Forget the samples of the previous calibration
+	 */
+	public void clearSamples() {
+		count = 0;
+	}
+
+	/**
+	 * Record a labeled sample
+	 * @param color : Color constant of the surface under the sensor
+	 * @param rgb : sample of the sensor in RGB mode
+	 * @return false if the samples are full
+	 */
+	public boolean record(int color, float[] rgb) {
+		if (count == labels.length) {
+			return false;
+		}
+		samples[3 * count] = rgb[0];
+		samples[3 * count + 1] = rgb[1];
+		samples[3 * count + 2] = rgb[2];
+		labels[count] = (byte) color;
+		count++;
+		return true;
+	}
+
+	public int getSampleCount() {
+		return count;
+	}
+
+	/**
+	 * Build the table from the recorded samples
+	 * @return false if there is no sample, the table is then unchanged
+	 */
+	public boolean build() {
+		if (count == 0) {
+			return false;
+		}
+		float max = MAX_DISTANCE * MAX_DISTANCE;
+		for (int r = 0; r < LEVELS; r++) {
+			for (int g = 0; g < LEVELS; g++) {
+				for (int b = 0; b < LEVELS; b++) {
+					float cr = center(r), cg = center(g), cb = center(b);
+					int color = Color.NONE;
+					float nearest = max;
+					for (int i = 0; i < count; i++) {
+						float dr = samples[3 * i] - cr;
+						float dg = samples[3 * i + 1] - cg;
+						float db = samples[3 * i + 2] - cb;
+						float d = dr * dr + dg * dg + db * db;
+						if (d <= nearest) {
+							nearest = d;
+							color = labels[i];
+						}
+					}
+					table[(r << (2 * BITS)) | (g << BITS) | b] = (byte) color;
+				}
+			}
+		}
+		calibrated = true;
+		return true;
+	}
+
+	/**
+	 * Save the table
+	 * @param file : path of the file on the flash
+	 */
+	public void save(String file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(BITS);
+			out.writeFloat(RANGE);
+			out.write(table);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load a table saved by a calibration
+	 * @param file : path of the file on the flash
+	 * @return false if there is no file, or it was saved with another
+	 * 	quantization, the table is then unchanged
+	 */
+	public boolean load(String file) {
+		if (!new File(file).exists()) {
+			return false;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != BITS
+						|| in.readFloat() != RANGE) {
+					return false;
+				}
+				byte[] loaded = new byte[table.length];
+				in.readFully(loaded);
+				System.arraycopy(loaded, 0, table, 0, table.length);
+				calibrated = true;
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Classification tuned by hand, used without a calibration
+	 */
+	private static int thresholds(float r, float g, float b) {
+		if (r > 0.1 && g > 0.1 && b > 0.1) {
+			return Color.WHITE;
+		} else if (r < 0.1 && g < 0.1 && b < 0.1) {
+			return Color.BLACK;
+		} else if (r >= 0.2 && g <= 0.10 && g > 0.05 && b <= 0.05) {
+			return Color.YELLOW;
+		} else if (r >= 0.14 && g <= 0.10 && g > 0.05 && b <= 0.05) {
+			return Color.ORANGE;
+		} else if (r <= 0.1 && g >= 0.1 && b < 0.1) {
+			return Color.BLUE;
+		}
+		return Color.NONE;
+	}
+}
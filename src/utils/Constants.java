@@ -12,9 +12,81 @@ public abstract class Constants {
 	
 	public final static int SOCKET_NUMBER = 5000;
 	
+	/* 
+	 * Multicast groups : MULTICAST_PREFIX + trainNumber for each train,
+	 * MULTICAST_PREFIX + LEADERS_GROUP for the messages between leaders
+	 */
+	public final static String MULTICAST_PREFIX = "239.255.42.";
+	public final static int LEADERS_GROUP = 100;
+	public final static String NETWORK_INTERFACE = "wlan0";
+	/* Send point-to-point orders to the address of the car instead of its train */
+	public final static boolean UNICAST_ENABLED = true;
+	
 	public final static int PACKET_SIZE = 2000;
 	
+	/* Number of preallocated messages used by the network thread */
+	public final static int MESSAGE_POOL_SIZE = 64;
+	
+	/* Number of preallocated outgoing packets */
+	public final static int SEND_QUEUE_SIZE = 32;
+	
+	/* Redundancy : maximum number of copies of a message and time between two copies */
+	public final static int MAX_COPIES = 5;
+	public final static long COPY_SPACING_MS = 5;
+	/* Loss rate assumed for a link before it is measured */
+	public final static double DEFAULT_LOSS_RATE = 0.1;
+	
+	/* Coordinates sent to the leader : period, and updates between two keyframes */
+	public final static long COORDINATES_PERIOD_MS = 250;
+	public final static int KEYFRAME_INTERVAL = 10;
+	
+	/* Period of the control loop, in milliseconds */
+	public final static long CONTROL_PERIOD_MS = 20;
+	/* Count the ticks of the control loop which allocate (see ControlLoop) */
+	public final static boolean ALLOCATION_PROBE = false;
+	
+	/* Time between two readings of the sonar, and readings in its median */
+	public final static long SONAR_PERIOD_MS = 30;
+	public final static int SONAR_WINDOW = 5;
+	/* Distance used for the readings out of range, in meters */
+	public final static float SONAR_MAX_RANGE = 2.55f;
+	/* Gap to the median above which a reading counts as an outlier */
+	public final static float SONAR_OUTLIER = 0.10f;
+	
+	/* Calibration of the colors : file of the table on the flash, samples
+	 * recorded for each color and time between them */
+	public final static String COLOR_TABLE_FILE = "colors.dat";
+	public final static int COLOR_SAMPLES = 60;
+	public final static long COLOR_SAMPLE_PERIOD_MS = 20;
+	
+	/* Steering along the line : BANG_BANG or PID */
+	public final static SteeringPolitic STEERING = SteeringPolitic.BANG_BANG;
+	/* Intensity (mean of the RGB sample) between white and black */
+	public final static float EDGE_SETPOINT = 0.12f;
+	/* Gains of the steering, and its largest turn (1 stops a wheel) */
+	public final static double PID_KP = 5.;
+	public final static double PID_KI = 0.5;
+	public final static double PID_KD = 0.1;
+	public final static double PID_OUTPUT_LIMIT = 0.8;
+	
+	/* Motor commands : largest change of speed in degrees per second per
+	 * second (0 : no limit), and change too small to be written */
+	public final static float MOTOR_ACCELERATION = 0;
+	public final static float MOTOR_SPEED_DEADBAND = 2;
+	
+	/* Screen refresh of the feedback service, and its sleep when idle */
+	public final static long RENDER_PERIOD_MS = 250;
+	public final static long FEEDBACK_IDLE_MS = 10;
+	
+	/* Time between two clock synchronizations of a leader with its peers */
+	public final static long CLOCK_SYNC_PERIOD_MS = 2000;
+	
+	/* Car ids are below this value (10*trainNumber + role) */
+	public final static int MAX_CAR_ID = 100;
+	
 	public final static int DISTANCE_MARK_TO_CROSSING = 1500;
+	/* The leader sends the speed plan as a table instead of a polynom */
+	public final static boolean SHIP_SPEED_PROFILE = false;
 	
 	public final static double TRAIN_NORMAL_SPEED = 40;
 	public final static double TRAIN_CROSSING_SPEED = 40;
@@ -27,4 +99,6 @@ public abstract class Constants {
 	public final static double MARK_CROSSING = 2000;
 	
 	public final static double WHEEL_PERIMETER = 2*Math.PI*(WHEEL_SIZE/2.);
+	/* Distance between the contact points of the two wheels, in meters */
+	public final static double AXLE_TRACK = 0.12;
 }
\ No newline at end of file
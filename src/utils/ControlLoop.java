@@ -0,0 +1,248 @@
+package utils;
+
+/**
+ * ControlLoop class
+ *
+ * <p>Runs the control of a robot at a fixed rate. Each tick runs four
+ * phases, in this order :</p>
+ * <ol>
+ * <li>sense : read the sensors,</li>
+ * <li>communicate : process the received messages,</li>
+ * <li>decide : compute the speeds and the messages to send,</li>
+ * <li>actuate : apply the speeds to the motors and send the messages.</li>
+ * </ol>
+ *
+ * <p>Ticks start every period, whatever they cost, so the gains of the
+ * controllers mean the same thing on every robot. A tick longer than the
+ * period is an overrun : the next tick starts right away and the schedule
+ * restarts from it, the ticks missed are not run.</p>
+ *
+ * <p>The loop records the execution time of each tick and phase, the
+ * overruns and a histogram of the jitter (delay between the scheduled and
+ * the actual start of a tick).</p>
+ *
+ * <p>When the allocation probe is on, the loop also compares the heap used
+ * before and after each tick. The heap only grows when a tick allocates
+ * (by a whole thread local buffer at a time, so the count is coarse), and
+ * a loop which allocates nothing keeps both counters at zero however long
+ * it runs. The probe is the benchmark of the sensor, message and feedback
+ * paths : turn it on, run a lap, and read getAllocatingTicks.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class ControlLoop {
+
+	/* Phases of a tick */
+	public final static int SENSE = 0;
+	public final static int COMMUNICATE = 1;
+	public final static int DECIDE = 2;
+	public final static int ACTUATE = 3;
+	public final static int PHASES = 4;
+
+	/* Upper bounds of the jitter histogram buckets, in milliseconds */
+	public final static long[] JITTER_BUCKETS = { 1, 2, 5, 10, 20, 50 };
+
+	private final long period;
+	private final Runnable[] phases = new Runnable[PHASES];
+	private volatile boolean running = false;
+
+	/* Statistics, in nanoseconds */
+	private long ticks = 0;
+	private long overruns = 0;
+	private long missedTicks = 0;
+	private long lastExecution = 0;
+	private long maxExecution = 0;
+	private double averageExecution = 0;
+	private final long[] lastPhase = new long[PHASES];
+	private final long[] maxPhase = new long[PHASES];
+	/* Last bucket counts the jitters above every bound */
+	private final long[] jitter = new long[JITTER_BUCKETS.length + 1];
+	private long maxJitter = 0;
+
+	/* Allocation probe */
+	private final Runtime runtime = Runtime.getRuntime();
+	private volatile boolean probe = false;
+	private long allocatingTicks = 0;
+	private long allocatedBytes = 0;
+
+	/**
+	 * Constructor
+	 * @param periodMs : time between the start of two ticks, in milliseconds
+	 */
+	public ControlLoop(long periodMs) {
+		this.period = periodMs * 1000000L;
+	}
+
+	/**
+	 * Set the task run by a phase of each tick
+	 * @param phase : SENSE, COMMUNICATE, DECIDE or ACTUATE
+	 * @param task : task of the phase, null for nothing
+	 */
+	public void setPhase(int phase, Runnable task) {
+		phases[phase] = task;
+	}
+
+	/**
+	 * Run the ticks until stop is called
+	 */
+	public void run() {
+		running = true;
+		long next = System.nanoTime();
+		while (running) {
+			long start = System.nanoTime();
+			recordJitter(start - next);
+
+			long used = probe ? runtime.totalMemory() - runtime.freeMemory() : 0;
+			tick();
+			if (probe) {
+				long grown = runtime.totalMemory() - runtime.freeMemory() - used;
+				/* A collection during the tick shrinks the heap, nothing is known */
+				if (grown > 0) {
+					allocatingTicks++;
+					allocatedBytes += grown;
+				}
+			}
+
+			long end = System.nanoTime();
+			long execution = end - start;
+			lastExecution = execution;
+			maxExecution = Math.max(maxExecution, execution);
+			averageExecution = ticks == 0 ? execution
+					: averageExecution + (execution - averageExecution) / 16;
+			ticks++;
+
+			next += period;
+			if (end > next) {
+				/* Overrun : start now, and schedule the next ticks from here */
+				overruns++;
+				missedTicks += (end - next) / period;
+				next = end;
+				continue;
+			}
+			try {
+				long wait = next - end;
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stop the loop at the end of the current tick
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Turn the allocation probe on or off
+	 */
+	public void setAllocationProbe(boolean probe) {
+		this.probe = probe;
+	}
+
+	/**
+	 * Run the phases once
+	 */
+	private void tick() {
+		for (int i = 0; i < PHASES; i++) {
+			long start = System.nanoTime();
+			if (phases[i] != null) {
+				phases[i].run();
+			}
+			long time = System.nanoTime() - start;
+			lastPhase[i] = time;
+			maxPhase[i] = Math.max(maxPhase[i], time);
+		}
+	}
+
+	private void recordJitter(long late) {
+		late = Math.max(0, late);
+		maxJitter = Math.max(maxJitter, late);
+		long ms = late / 1000000;
+		int bucket = 0;
+		while (bucket < JITTER_BUCKETS.length && ms >= JITTER_BUCKETS[bucket]) {
+			bucket++;
+		}
+		jitter[bucket]++;
+	}
+
+	public long getPeriod() {
+		return period / 1000000;
+	}
+
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Number of ticks longer than the period
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * Number of ticks skipped because of the overruns
+	 */
+	public long getMissedTicks() {
+		return missedTicks;
+	}
+
+	/**
+	 * Execution time of the last tick, in nanoseconds
+	 */
+	public long getLastExecution() {
+		return lastExecution;
+	}
+
+	public long getMaxExecution() {
+		return maxExecution;
+	}
+
+	public double getAverageExecution() {
+		return averageExecution;
+	}
+
+	/**
+	 * Execution time of a phase during the last tick, in nanoseconds
+	 */
+	public long getLastPhase(int phase) {
+		return lastPhase[phase];
+	}
+
+	public long getMaxPhase(int phase) {
+		return maxPhase[phase];
+	}
+
+	/**
+	 * Number of ticks whose jitter falls in each bucket : below
+	 * JITTER_BUCKETS[i] for bucket i, above every bound for the last one
+	 */
+	public long[] getJitterHistogram() {
+		return jitter.clone();
+	}
+
+	/**
+	 * Largest jitter, in nanoseconds
+	 */
+	public long getMaxJitter() {
+		return maxJitter;
+	}
+
+	/**
+	 * Number of ticks during which the heap grew, with the probe on
+	 */
+	public long getAllocatingTicks() {
+		return allocatingTicks;
+	}
+
+	/**
+	 * Growth of the heap during those ticks, in bytes
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+}
@@ -5,6 +5,9 @@ package utils;
  * 
  * <p>Used to resolve system of two equations for speed polynom computation</p>
  * 
+ * <p>The equations are not modified, and the solution is kept in an array
+ * of the system, overwritten by the next resolve.</p>
+ * 
  * @author Nathan Olff and Felix Lahemade
  *
  */
@@ -12,6 +15,9 @@ public class EquationSystem {
 	private Equation eqA;
 	private Equation eqB;
 	
+	private final LinearSolver solver = new LinearSolver(2);
+	private final double[] solution = new double[2];
+	
 	public EquationSystem() {
 		
 	}
@@ -34,27 +40,23 @@ public class EquationSystem {
 	
 	/**
 	 * Resolve system of two equations
+	 * @return the values of a and b, or null if there is no single solution
 	 */
-	public void resolve() {
-		System.out.println("Resolve IN");
-		System.out.println(eqA);
-		System.out.println(eqB);
-		
-		eqA.multiplyBy(-1./eqA.getCoeffB());	// B in function of A
-		eqB.setCoeffA(eqB.getCoeffA()+eqA.getCoeffA()*eqB.getCoeffB());
-		eqB.setConstant(eqB.getConstant()+eqA.getConstant()*eqB.getCoeffB());
-		eqB.setCoeffB(0);
-		eqB.multiplyBy(-1./eqB.getCoeffA());
-		
-		double finalA = eqB.getConstant();
-		
-		eqA.setConstant(eqA.getConstant()+finalA*eqA.getCoeffA());
-		eqA.setCoeffA(0);
-		double finalB = eqA.getConstant();
-		System.out.println(eqB);
-		System.out.println(eqA);
-		System.out.println(finalA);
-		System.out.println(finalB);
+	public double[] resolve() {
+		/* coeffA * a + coeffB * b = -constant */
+		solver.clear(2);
+		solver.set(0, 0, eqA.getCoeffA());
+		solver.set(0, 1, eqA.getCoeffB());
+		solver.setConstant(0, -eqA.getConstant());
+		solver.set(1, 0, eqB.getCoeffA());
+		solver.set(1, 1, eqB.getCoeffB());
+		solver.setConstant(1, -eqB.getConstant());
+		if (!solver.solve()) {
+			return null;
+		}
+		solution[0] = solver.getSolution(0);
+		solution[1] = solver.getSolution(1);
+		return solution;
 	}
 	
 }
\ No newline at end of file
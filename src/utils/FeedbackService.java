@@ -0,0 +1,204 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import lejos.hardware.Button;
+import lejos.hardware.Sound;
+import lejos.hardware.lcd.LCD;
+
+/**
+ * FeedbackService class
+ *
+ * <p>Drives the screen, the LEDs and the speaker from a low priority thread,
+ * so the control loop never waits on them :</p>
+ * <ul>
+ * <li>the control loop publishes the value of each status line, and the
+ * service draws the lines which changed, RENDER_PERIOD_MS apart,</li>
+ * <li>tones are queued and played one after the other,</li>
+ * <li>only the last LED pattern asked for is applied.</li>
+ * </ul>
+ *
+ * <p>Publishing does not allocate : the text of a line is built by the
+ * service thread.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class FeedbackService implements Runnable {
+
+	/* Number of lines of the screen */
+	public final static int LINES = 8;
+	/* Number of tones waiting to be played */
+	public final static int TONE_QUEUE_SIZE = 16;
+
+	/* Status published by the control loop */
+	private final String[] labels = new String[LINES];
+	private final double[] values = new double[LINES];
+	private final boolean[] flags = new boolean[LINES];
+	private volatile int version = 0;
+
+	/* Status drawn on the screen */
+	private final String[] drawnLabels = new String[LINES];
+	private final double[] drawnValues = new double[LINES];
+	private int drawnVersion = 0;
+
+	/* Tones, frequency and duration packed in a long */
+	private final long[] tones;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private long droppedTones = 0;
+
+	/* LED pattern asked for, and the one applied */
+	private volatile int ledPattern = -1;
+	private int appliedPattern = -1;
+
+	private final StringBuilder text = new StringBuilder(32);
+
+	public FeedbackService() {
+		int size = 1;
+		while (size < TONE_QUEUE_SIZE) {
+			size <<= 1;
+		}
+		tones = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Start the thread of the service
+	 */
+	public void start() {
+		Thread t = new Thread(this, "feedback");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+	}
+
+	/**
+	 * Publish the value of a status line (control thread)
+	 * @param line : line of the screen
+	 * @param label : constant text before the value
+	 * @param value to display
+	 */
+	public void show(int line, String label, double value) {
+		publish(line, label, value, false);
+	}
+
+	/**
+	 * Publish a status line holding a flag (control thread)
+	 */
+	public void show(int line, String label, boolean value) {
+		publish(line, label, value ? 1 : 0, true);
+	}
+
+	private void publish(int line, String label, double value, boolean flag) {
+		if (labels[line] != label || values[line] != value) {
+			labels[line] = label;
+			values[line] = value;
+			flags[line] = flag;
+			version++;
+		}
+	}
+
+	/**
+	 * Queue a tone (control thread)
+	 * @param frequency in Hz
+	 * @param duration in milliseconds
+	 */
+	public void tone(int frequency, int duration) {
+		long t = tail.get();
+		if (t - head.get() == tones.length) {
+			droppedTones++;
+			return;
+		}
+		tones[(int) t & mask] = ((long) frequency << 32) | (duration & 0xFFFFFFFFL);
+		tail.lazySet(t + 1);
+	}
+
+	/**
+	 * Change the pattern of the LEDs (control thread)
+	 * @param pattern : see Button.LEDPattern
+	 */
+	public void led(int pattern) {
+		ledPattern = pattern;
+	}
+
+	/*
+	 * Service loop
+	 *
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		long nextRender = 0;
+		while (true) {
+			int pattern = ledPattern;
+			if (pattern != appliedPattern) {
+				Button.LEDPattern(pattern);
+				appliedPattern = pattern;
+			}
+
+			long now = System.currentTimeMillis();
+			if (now >= nextRender) {
+				render();
+				nextRender = now + Constants.RENDER_PERIOD_MS;
+			}
+
+			/* Playing a tone blocks, so one at a time between the renders */
+			long h = head.get();
+			if (h != tail.get()) {
+				long tone = tones[(int) h & mask];
+				head.lazySet(h + 1);
+				Sound.playTone((int) (tone >>> 32), (int) tone);
+				continue;
+			}
+
+			try {
+				Thread.sleep(Constants.FEEDBACK_IDLE_MS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Draw the lines which changed since the last render
+	 */
+	private void render() {
+		int v = version;
+		if (v == drawnVersion) {
+			return;
+		}
+		drawnVersion = v;
+		for (int line = 0; line < LINES; line++) {
+			String label = labels[line];
+			double value = values[line];
+			if (label == null
+					|| (label == drawnLabels[line] && value == drawnValues[line])) {
+				continue;
+			}
+			drawnLabels[line] = label;
+			drawnValues[line] = value;
+
+			text.setLength(0);
+			text.append(label);
+			if (flags[line]) {
+				text.append(value != 0);
+			} else if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+				text.append((long) value);
+			} else {
+				text.append((float) value);
+			}
+			LCD.clear(line);
+			LCD.drawString(text.toString(), 1, line);
+		}
+	}
+
+	/**
+	 * Number of tones not played because the queue was full
+	 */
+	public long getDroppedTones() {
+		return droppedTones;
+	}
+}
@@ -0,0 +1,164 @@
+package utils;
+
+/**
+ * LinearSolver class
+ *
+ * <p>Solves small dense linear systems A x = b by Gaussian elimination with
+ * partial pivoting. The system is set coefficient by coefficient, and
+ * solved on a copy : solving neither changes it, nor allocates, nor
+ * prints. Every array is allocated once, for the largest size.</p>
+ *
+ * <p>Not thread safe, each user keeps its own solver.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class LinearSolver {
+
+	/* Pivots smaller than this are taken as zero */
+	public final static double EPSILON = 1e-12;
+
+	private final int maxSize;
+	private int size = 0;
+
+	/* System as set, and augmented matrix eliminated by solve */
+	private final double[] matrix;
+	private final double[] constants;
+	private final double[] work;
+	private final double[] solution;
+
+	/**
+	 * Constructor
+	 * @param maxSize : largest number of unknowns
+	 */
+	public LinearSolver(int maxSize) {
+		this.maxSize = maxSize;
+		matrix = new double[maxSize * maxSize];
+		constants = new double[maxSize];
+		work = new double[maxSize * (maxSize + 1)];
+		solution = new double[maxSize];
+	}
+
+	/**
+	 * Start a new system, every coefficient at 0
+	 * @param size : number of unknowns, and of equations
+	 */
+	public void clear(int size) {
+		if (size < 1 || size > maxSize) {
+			throw new IllegalArgumentException("Size " + size
+					+ " out of [1, " + maxSize + "]");
+		}
+		this.size = size;
+		for (int i = 0; i < size * size; i++) {
+			matrix[i] = 0;
+		}
+		for (int i = 0; i < size; i++) {
+			constants[i] = 0;
+			solution[i] = 0;
+		}
+	}
+
+	/**
+	 * Set a coefficient of A
+	 * @param row : equation
+	 * @param column : unknown
+	 */
+	public void set(int row, int column, double value) {
+		matrix[row * size + column] = value;
+	}
+
+	public double get(int row, int column) {
+		return matrix[row * size + column];
+	}
+
+	/**
+	 * Set a coefficient of b, the right side of an equation
+	 */
+	public void setConstant(int row, double value) {
+		constants[row] = value;
+	}
+
+	public double getConstant(int row) {
+		return constants[row];
+	}
+
+	/**
+	 * Solve the system
+	 * @return false if it has no single solution, the solution is then
+	 * 	left at 0
+	 */
+	public boolean solve() {
+		int n = size;
+		int width = n + 1;
+		for (int row = 0; row < n; row++) {
+			for (int column = 0; column < n; column++) {
+				work[row * width + column] = matrix[row * n + column];
+			}
+			work[row * width + n] = constants[row];
+		}
+
+		for (int pivot = 0; pivot < n; pivot++) {
+			/* Row with the largest coefficient in the pivot column */
+			int best = pivot;
+			double bestValue = Math.abs(work[pivot * width + pivot]);
+			for (int row = pivot + 1; row < n; row++) {
+				double value = Math.abs(work[row * width + pivot]);
+				if (value > bestValue) {
+					best = row;
+					bestValue = value;
+				}
+			}
+			if (bestValue < EPSILON) {
+				for (int i = 0; i < n; i++) {
+					solution[i] = 0;
+				}
+				return false;
+			}
+			if (best != pivot) {
+				for (int column = pivot; column <= n; column++) {
+					double swap = work[pivot * width + column];
+					work[pivot * width + column] = work[best * width + column];
+					work[best * width + column] = swap;
+				}
+			}
+
+			/* Eliminate the pivot column below the pivot */
+			double p = work[pivot * width + pivot];
+			for (int row = pivot + 1; row < n; row++) {
+				double factor = work[row * width + pivot] / p;
+				if (factor == 0) {
+					continue;
+				}
+				for (int column = pivot; column <= n; column++) {
+					work[row * width + column] -= factor
+							* work[pivot * width + column];
+				}
+			}
+		}
+
+		/* Back substitution */
+		for (int row = n - 1; row >= 0; row--) {
+			double value = work[row * width + n];
+			for (int column = row + 1; column < n; column++) {
+				value -= work[row * width + column] * solution[column];
+			}
+			solution[row] = value / work[row * width + row];
+		}
+		return true;
+	}
+
+	/**
+	 * Value of an unknown, after solve
+	 */
+	public double getSolution(int i) {
+		return solution[i];
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+}
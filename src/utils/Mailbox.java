@@ -0,0 +1,174 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Mailbox class
+ *
+ * <p>Bounded mailbox between the network thread (producer) and the robot
+ * (consumer). Two kinds of messages are kept:</p>
+ * <ul>
+ * <li>state messages (coordinates of each car, speed, safeDistance) only
+ * matter by their last value : each one has a slot, and a new message
+ * replaces the one still waiting in its slot,</li>
+ * <li>every other message is an event, kept in arrival order.</li>
+ * </ul>
+ *
+ * <p>The order ring remembers when each event, or each slot which was empty,
+ * was filled, so messages are still polled in the order they arrived. A
+ * robot stalled for a while gets one message per state key, never a backlog
+ * of stale coordinates and speed orders.</p>
+ *
+ * <p>Coordinates replacing a keyframe still waiting keep its keyframe number,
+ * unless they are a newer keyframe themselves : the robot still acknowledges
+ * it, and the sender can start sending deltas.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class Mailbox {
+
+	/* Entry of the order ring standing for the next event */
+	private final static int EVENT = -1;
+
+	/* Slots of the state messages */
+	private final static int SPEED_SLOT = 0;
+	private final static int SAFE_DISTANCE_SLOT = 1;
+	private final static int COORDINATES_SLOT = 2;
+	private final static int SLOT_COUNT = COORDINATES_SLOT + Constants.MAX_CAR_ID;
+
+	private final AtomicReferenceArray<Message> slots = new AtomicReferenceArray<>(
+			SLOT_COUNT);
+	private final RingBuffer<Message> events;
+
+	/* Order of arrival : a slot number, or EVENT */
+	private final int[] order;
+	private final int mask;
+	/* Index of the next entry to poll, only written by the consumer */
+	private final AtomicLong head = new AtomicLong();
+	/* Index of the next free entry, only written by the producer */
+	private final AtomicLong tail = new AtomicLong();
+
+	/* Statistics, only written by the producer */
+	private volatile long overflows = 0;
+	private volatile long coalesced = 0;
+
+	/**
+	 * Constructor
+	 * @param capacity : number of events the mailbox can hold
+	 */
+	public Mailbox(int capacity) {
+		events = new RingBuffer<>(capacity);
+		/* Each event and each slot is in the order ring at most once */
+		int size = 1;
+		while (size < events.capacity() + SLOT_COUNT) {
+			size <<= 1;
+		}
+		order = new int[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Add a message to the mailbox (producer thread only)
+	 * @param message : received message
+	 * @return the message which left the mailbox : the older value replaced
+	 * by this one, or this message if the mailbox is full. null if nothing
+	 * left the mailbox.
+	 */
+	public Message offer(Message message) {
+		int slot = slotOf(message);
+		if (slot == EVENT) {
+			if (!events.offer(message)) {
+				overflows++;
+				return message;
+			}
+			push(EVENT);
+			return null;
+		}
+
+		if (message.getOpcode() == Opcode.COORDINATES
+				&& message.getKeyframe() == 0) {
+			/* Sticky keyframe, set before the message can be polled */
+			Message waiting = slots.get(slot);
+			if (waiting != null) {
+				message.setKeyframe(waiting.getKeyframe());
+			}
+		}
+		Message previous = slots.getAndSet(slot, message);
+		if (previous != null) {
+			/* Still waiting : it keeps its place, with the new value */
+			coalesced++;
+			return previous;
+		}
+		push(slot);
+		return null;
+	}
+
+	/**
+	 * Take the oldest message of the mailbox (consumer thread only)
+	 * @return the message, or null if the mailbox is empty
+	 */
+	public Message poll() {
+		long h = head.get();
+		if (h == tail.get()) {
+			return null;
+		}
+		int entry = order[(int) h & mask];
+		head.lazySet(h + 1);
+		if (entry == EVENT) {
+			return events.poll();
+		}
+		/* Emptying the slot lets the producer put it in the order ring again */
+		return slots.getAndSet(entry, null);
+	}
+
+	/**
+	 * Add an entry to the order ring (producer thread only)
+	 */
+	private void push(int entry) {
+		long t = tail.get();
+		order[(int) t & mask] = entry;
+		tail.lazySet(t + 1);
+	}
+
+	/**
+	 * Slot of a state message
+	 * @return the slot, or EVENT if every message of this kind is kept
+	 */
+	private static int slotOf(Message message) {
+		switch (message.getOpcode()) {
+		case Opcode.SPEED:
+			return SPEED_SLOT;
+		case Opcode.SAFE_DISTANCE:
+			return SAFE_DISTANCE_SLOT;
+		case Opcode.COORDINATES:
+			CarsBehavior behavior = message.getBehavior();
+			if (behavior != null && behavior.getId() >= 0
+					&& behavior.getId() < Constants.MAX_CAR_ID) {
+				return COORDINATES_SLOT + behavior.getId();
+			}
+			return EVENT;
+		default:
+			return EVENT;
+		}
+	}
+
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+	/**
+	 * Number of events dropped because the mailbox was full
+	 */
+	public long getOverflows() {
+		return overflows;
+	}
+
+	/**
+	 * Number of state messages replaced by a newer one before being polled
+	 */
+	public long getCoalesced() {
+		return coalesced;
+	}
+}
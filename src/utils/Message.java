@@ -23,8 +23,49 @@ public class Message implements Serializable {
 	 */
 	private String key;
 	
+	/* Binary identifier of the key, see Opcode */
+	private int opcode;
+	
 	private Serializable value;
 	
+	/* Numeric value (speed, distance...), stored without boxing */
+	private double number;
+	
+	/* Robot which sent the message, set when it is received */
+	private int from;
+	
+	/* 
+	 * Keyframe of coordinates, or keyframe acknowledged by a coordinatesAck.
+	 * 0 for coordinates sent as a delta.
+	 */
+	private int keyframe;
+	
+	/* 
+	 * Delivery id of a reliable message, or id acknowledged by an ack.
+	 * 0 for a best effort message.
+	 */
+	private int deliveryId;
+	
+	/* 
+	 * Set when the message is received : time the packet was sent, on the
+	 * clock of the sender, and time it was received, on the local clock
+	 */
+	private long timestamp;
+	private long receivedAt;
+	
+	/* 
+	 * Times of the timeRequest answered by a timeResponse : sent, on the
+	 * clock of the requester, and received, on the clock of the responder
+	 */
+	private long requestSent;
+	private long requestReceived;
+	
+	/* 
+	 * CarsBehavior owned by the message, reused each time a coordinates
+	 * packet is decoded into this message.
+	 */
+	private transient CarsBehavior behavior;
+	
 	public Message() {
 		this.key = "";
 		this.value = null;
@@ -32,8 +73,14 @@ public class Message implements Serializable {
 	
 	public Message(String key, Serializable value) {
 		super();
-		this.key = key;
-		this.value = value;
+		setKey(key);
+		setValue(value);
+	}
+	
+	public Message(int opcode, Serializable value) {
+		super();
+		setOpcode(opcode);
+		setValue(value);
 	}
 	
 	public String getKey() {
@@ -41,12 +88,77 @@ public class Message implements Serializable {
 	}
 	public void setKey(String key) {
 		this.key = key;
+		this.opcode = Opcode.fromKey(key);
+	}
+	public int getOpcode() {
+		return opcode;
+	}
+	public void setOpcode(int opcode) {
+		this.opcode = opcode;
+		this.key = Opcode.toKey(opcode);
 	}
 	public Serializable getValue() {
 		return value;
 	}
 	public void setValue(Serializable value) {
 		this.value = value;
+		if (value instanceof Double) {
+			this.number = (Double) value;
+		}
+	}
+	public double getNumber() {
+		return number;
+	}
+	public void setNumber(double number) {
+		this.number = number;
+	}
+	public int getFrom() {
+		return from;
+	}
+	public void setFrom(int from) {
+		this.from = from;
+	}
+	public int getKeyframe() {
+		return keyframe;
+	}
+	public void setKeyframe(int keyframe) {
+		this.keyframe = keyframe;
+	}
+	public int getDeliveryId() {
+		return deliveryId;
+	}
+	public void setDeliveryId(int deliveryId) {
+		this.deliveryId = deliveryId;
+	}
+	public long getTimestamp() {
+		return timestamp;
+	}
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+	public long getReceivedAt() {
+		return receivedAt;
+	}
+	public void setReceivedAt(long receivedAt) {
+		this.receivedAt = receivedAt;
+	}
+	public long getRequestSent() {
+		return requestSent;
+	}
+	public void setRequestSent(long requestSent) {
+		this.requestSent = requestSent;
+	}
+	public long getRequestReceived() {
+		return requestReceived;
+	}
+	public void setRequestReceived(long requestReceived) {
+		this.requestReceived = requestReceived;
+	}
+	public CarsBehavior getBehavior() {
+		return behavior;
+	}
+	public void setBehavior(CarsBehavior behavior) {
+		this.behavior = behavior;
 	}
 	
 	
@@ -5,8 +5,11 @@ import java.io.Serializable;
 /**
  * MessageDatagram class
  * 
- * <p>Contains the message to send and medata about the sender's id, receiver's id
- * and sender's timestamp (used for redundancy)</p>
+ * <p>Contains the message to send and medata about the sender's id, receiver's id,
+ * sender's timestamp and sequence number (used for redundancy)</p>
+ * 
+ * <p>On the receiving side, it holds the header of a packet, whose messages
+ * are then decoded one by one.</p>
  * 
  * @author Nathan Olff and Felix Lahemade
  *
@@ -19,8 +22,18 @@ public class MessageDatagram implements Serializable {
 	private int to;
 	private int from;
 	private long timestamp;
+	/* Sequence number of the message from the sender to the receiver */
+	private int sequence;
+	/* Number of times the message was sent */
+	private int copies = 1;
+	/* Number of messages in the frame */
+	private int count;
 	private Message content;
 	
+	public MessageDatagram() {
+		
+	}
+	
 	public MessageDatagram(int from, int to, Message content) {
 		this.from = from;
 		this.timestamp = System.currentTimeMillis();
@@ -52,10 +65,42 @@ public class MessageDatagram implements Serializable {
 	public long getTimestamp() {
 		return timestamp;
 	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
 	
 
 	public int getFrom() {
 		return from;
 	}
 
+	public void setFrom(int from) {
+		this.from = from;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(int sequence) {
+		this.sequence = sequence;
+	}
+
+	public int getCopies() {
+		return copies;
+	}
+
+	public void setCopies(int copies) {
+		this.copies = copies;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
 }
@@ -0,0 +1,152 @@
+package utils;
+
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+
+/**
+ * MotorDriver class
+ *
+ * <p>Stands between the control of a robot and one of its motors. The
+ * control sets a target speed and a direction as often as it likes, and
+ * {@link #apply()} forwards them to the regulator of the motor, once per
+ * tick, only when it changes something :</p>
+ * <ul>
+ * <li>a speed within MOTOR_SPEED_DEADBAND of the one already written is not
+ * written, nor a direction already taken. A target which stays the same
+ * for two ticks is written exactly, so the motor does not settle off by
+ * up to the deadband,</li>
+ * <li>if MOTOR_ACCELERATION is positive, the speed written moves towards
+ * the target by at most MOTOR_ACCELERATION degrees per second, per second.
+ * It is 0 (off) by default : the regulator of the motor already ramps
+ * the speed.</li>
+ * </ul>
+ *
+ * <p>Stopping is never delayed. The driver counts the commands issued to the
+ * regulator, and the ones suppressed.</p>
+ *
+ * <p>Only used by the robot thread.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class MotorDriver {
+
+	private final EV3LargeRegulatedMotor motor;
+
+	/* Asked by the control, and target of the previous apply */
+	private float target = 0;
+	private float previousTarget = Float.NaN;
+	private boolean forward = false;
+
+	/* Written to the regulator */
+	private float written = Float.NaN;
+	private boolean moving = false;
+	private long lastApply = 0;
+
+	/* Statistics */
+	private long issued = 0;
+	private long suppressed = 0;
+
+	/**
+	 * Constructor
+	 * @param motor driven, only through this driver from now on
+	 */
+	public MotorDriver(EV3LargeRegulatedMotor motor) {
+		this.motor = motor;
+	}
+
+	/**
+	 * Set the target speed, applied by the next apply
+	 * @param speed in degrees per second
+	 */
+	public void setSpeed(float speed) {
+		target = Math.max(0, speed);
+	}
+
+	/**
+	 * Ask the motor to move forward, from the next apply
+	 */
+	public void forward() {
+		forward = true;
+	}
+
+	/**
+	 * Stop the motor now
+	 * @param immediateReturn : do not wait for the motor to be stopped
+	 */
+	public void stop(boolean immediateReturn) {
+		forward = false;
+		if (moving) {
+			motor.stop(immediateReturn);
+			moving = false;
+			issued++;
+		} else {
+			suppressed++;
+		}
+	}
+
+	/**
+	 * Write the speed and the direction to the regulator, if they changed
+	 */
+	public void apply() {
+		long now = System.nanoTime();
+		float speed = target;
+		if (Constants.MOTOR_ACCELERATION > 0 && !Float.isNaN(written)) {
+			/* Slew limit, from the speed written */
+			float step = (float) (Constants.MOTOR_ACCELERATION
+					* Math.min(now - lastApply, 100000000L) / 1e9);
+			speed = Math.max(written - step, Math.min(written + step, target));
+		}
+		lastApply = now;
+
+		/* The deadband only filters a target still moving */
+		boolean settled = speed == target && target == previousTarget;
+		previousTarget = target;
+		if (!Float.isNaN(written)
+				&& (speed == written || (!settled && Math.abs(speed
+						- written) < Constants.MOTOR_SPEED_DEADBAND))) {
+			suppressed++;
+		} else {
+			motor.setSpeed(speed);
+			written = speed;
+			issued++;
+		}
+
+		if (forward && !moving) {
+			motor.forward();
+			moving = true;
+			issued++;
+		} else if (forward) {
+			suppressed++;
+		}
+	}
+
+	/**
+	 * Speed last written to the regulator, in degrees per second
+	 */
+	public float getSpeed() {
+		return Float.isNaN(written) ? 0 : written;
+	}
+
+	public float getTarget() {
+		return target;
+	}
+
+	public float getMaxSpeed() {
+		return motor.getMaxSpeed();
+	}
+
+	/**
+	 * Number of commands written to the regulator
+	 */
+	public long getIssued() {
+		return issued;
+	}
+
+	/**
+	 * Number of commands which would not have changed anything, or were
+	 * within the deadband
+	 */
+	public long getSuppressed() {
+		return suppressed;
+	}
+}
@@ -0,0 +1,156 @@
+package utils;
+
+/**
+ * Odometry class
+ *
+ * <p>Position of the robot along the circuit, from the encoders of both
+ * wheels, read once per tick. The arc travelled is the mean of the two
+ * wheels, so the turns of the line following cancel out, and their
+ * difference gives the heading :</p>
+ * <pre>
+ * arc     = scale * (dLeft + dRight) / 2                 wheel degrees
+ * heading = heading + (dRight - dLeft) * WHEEL_PERIMETER / 360 / AXLE_TRACK
+ * </pre>
+ *
+ * <p>Positions are in wheel degrees since the last orange mark, as
+ * MARK_CROSSING and CIRCUIT_SIZE. At each mark, the position is known to be
+ * CIRCUIT_SIZE : the difference is the drift of the lap. The scale
+ * (slipping, actual size of the wheels) is corrected from it, and the
+ * position starts again from 0, as does the heading.</p>
+ *
+ * <p>Only used by the robot thread.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class Odometry {
+
+	/* Laps further than this ratio from CIRCUIT_SIZE are not used */
+	public final static double MAX_LAP_ERROR = 0.25;
+	/* Bounds of the scale */
+	public final static double MIN_SCALE = 0.8;
+	public final static double MAX_SCALE = 1.2;
+
+	private int previousLeft = 0;
+	private int previousRight = 0;
+
+	private double scale = 1;
+	private double position = 0;
+	private double lastArc = 0;
+	private double heading = 0;
+	private double travelled = 0;
+	private double odometer = 0;
+
+	/* Drift measured at the last mark, in wheel degrees */
+	private double lastDrift = 0;
+	private int marks = 0;
+
+	public Odometry() {
+
+	}
+
+	/**
+	 * Start again from the current encoders, at position 0
+	 * @param left : tacho count of the left wheel
+	 * @param right : tacho count of the right wheel
+	 */
+	public void reset(int left, int right) {
+		previousLeft = left;
+		previousRight = right;
+		position = 0;
+		heading = 0;
+		lastArc = 0;
+	}
+
+	/**
+	 * Integrate the movement since the last tick
+	 * @param left : tacho count of the left wheel
+	 * @param right : tacho count of the right wheel
+	 */
+	public void update(int left, int right) {
+		int dLeft = left - previousLeft;
+		int dRight = right - previousRight;
+		previousLeft = left;
+		previousRight = right;
+
+		lastArc = scale * (dLeft + dRight) / 2.;
+		position += lastArc;
+		odometer += lastArc;
+		travelled += Math.abs(lastArc) * Constants.WHEEL_PERIMETER / 360;
+		heading += scale * (dRight - dLeft) * Constants.WHEEL_PERIMETER / 360
+				/ Constants.AXLE_TRACK;
+	}
+
+	/**
+	 * An orange mark was reached : correct the drift of the lap, and start
+	 * the next lap from 0
+	 */
+	public void mark() {
+		if (marks > 0) {
+			lastDrift = position - Constants.CIRCUIT_SIZE;
+			double ratio = Constants.CIRCUIT_SIZE / position;
+			if (Math.abs(ratio - 1) < MAX_LAP_ERROR) {
+				/* Half way, a single lap may be disturbed */
+				scale *= 1 + (ratio - 1) / 2;
+				scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+			}
+		}
+		marks++;
+		position = 0;
+		heading = 0;
+	}
+
+	/**
+	 * Wheel degrees since the last mark
+	 */
+	public double getPosition() {
+		return position;
+	}
+
+	/**
+	 * Wheel degrees travelled during the last tick
+	 */
+	public double getLastArc() {
+		return lastArc;
+	}
+
+	/**
+	 * Heading since the last mark, in radians, positive to the left
+	 */
+	public double getHeading() {
+		return heading;
+	}
+
+	/**
+	 * Distance travelled since the start, in meters
+	 */
+	public double getTravelled() {
+		return travelled;
+	}
+
+	/**
+	 * Wheel degrees since the start, corrected by the scale as the position,
+	 * but never reset : neither at the marks nor by reset
+	 */
+	public double getOdometer() {
+		return odometer;
+	}
+
+	/**
+	 * Correction applied to the encoders
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * Position at the last mark minus CIRCUIT_SIZE, in wheel degrees
+	 */
+	public double getLastDrift() {
+		return lastDrift;
+	}
+
+	public int getMarks() {
+		return marks;
+	}
+}
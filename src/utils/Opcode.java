@@ -0,0 +1,93 @@
+package utils;
+
+/**
+ * Opcode class
+ *
+ * <p>Binary identifiers of the message keys. An opcode replaces the key
+ * string of a {@link utils.Message} on the wire.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public abstract class Opcode {
+
+	public final static int UNKNOWN = 0;
+
+	/* Crossing protocol */
+	public final static int TRAIN_IN_CROSSING = 1;
+	public final static int WARNING_CROSSING = 2;
+	public final static int IN_CROSSING = 3;
+	public final static int TRAIN_OUT_OF_CROSSING = 4;
+	public final static int WARNING_EXIT_CROSSING = 5;
+	public final static int OUT_CROSSING = 6;
+
+	/* Train state */
+	public final static int COORDINATES = 7;
+	public final static int CARS_MAP = 8;
+	public final static int SPEED = 9;
+	public final static int SAFE_DISTANCE = 10;
+	public final static int SPEED_POLYNOM = 11;
+	public final static int DEBUG = 12;
+	public final static int COORDINATES_ACK = 13;
+
+	/* Acknowledgement of a reliable message */
+	public final static int ACK = 14;
+
+	/* Clock synchronization */
+	public final static int TIME_REQUEST = 15;
+	public final static int TIME_RESPONSE = 16;
+
+	/* Speed plan as a table, instead of a polynom */
+	public final static int SPEED_PROFILE = 17;
+
+	/* Number of opcodes, used to size opcode indexed tables */
+	public final static int COUNT = 18;
+
+	/* Keys of the messages, indexed by opcode */
+	private final static String[] KEYS = {
+		"",
+		"trainInCrossing",
+		"warningCrossing",
+		"inCrossing",
+		"trainOutOfCrossing",
+		"warningExitCrossing",
+		"outCrossing",
+		"coordinates",
+		"carsMap",
+		"speed",
+		"safeDistance",
+		"speedPolynom",
+		"debug",
+		"coordinatesAck",
+		"ack",
+		"timeRequest",
+		"timeResponse",
+		"speedProfile"
+	};
+
+	/**
+	 * Get the opcode corresponding to a message key
+	 * @param key of the message
+	 * @return the opcode, or UNKNOWN if the key is not known
+	 */
+	public static int fromKey(String key) {
+		for (int i = 1; i < COUNT; i++) {
+			if (KEYS[i].equals(key)) {
+				return i;
+			}
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * Get the message key corresponding to an opcode
+	 * @param opcode of the message
+	 * @return the key, or an empty string if the opcode is not known
+	 */
+	public static String toKey(int opcode) {
+		if (opcode <= UNKNOWN || opcode >= COUNT) {
+			return KEYS[UNKNOWN];
+		}
+		return KEYS[opcode];
+	}
+}
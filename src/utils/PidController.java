@@ -0,0 +1,111 @@
+package utils;
+
+/**
+ * PidController class
+ *
+ * <p>Proportional, integral, derivative controller :</p>
+ * <pre>
+ * output = kp * error + ki * integral(error) + kd * d(error)/dt
+ * </pre>
+ *
+ * <p>The output is clamped to [-outputLimit, outputLimit]. Against windup,
+ * the integral stops growing while the output is saturated in its
+ * direction, and its own term never exceeds the output limit.</p>
+ *
+ * <p>The controller also measures how well the error is held at zero : its
+ * root mean square, and the number of times it changed sign.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class PidController {
+
+	private double kp, ki, kd;
+	private double outputLimit;
+
+	private double integral = 0;
+	private double previousError = 0;
+	private boolean started = false;
+
+	/* Statistics */
+	private long updates = 0;
+	private double squaredErrors = 0;
+	private long crossings = 0;
+
+	/**
+	 * Constructor
+	 * @param kp : proportional gain
+	 * @param ki : integral gain, per second
+	 * @param kd : derivative gain, in seconds
+	 * @param outputLimit : largest absolute value of the output
+	 */
+	public PidController(double kp, double ki, double kd, double outputLimit) {
+		setGains(kp, ki, kd);
+		this.outputLimit = outputLimit;
+	}
+
+	public void setGains(double kp, double ki, double kd) {
+		this.kp = kp;
+		this.ki = ki;
+		this.kd = kd;
+	}
+
+	public void setOutputLimit(double outputLimit) {
+		this.outputLimit = outputLimit;
+	}
+
+	/**
+	 * Compute the output for a new error
+	 * @param error : setpoint minus the measure, or the opposite
+	 * @param dt : time since the last update, in seconds
+	 * @return the output, within the limit
+	 */
+	public double update(double error, double dt) {
+		double derivative = started && dt > 0 ? (error - previousError) / dt : 0;
+		if (started && (error > 0) != (previousError > 0)) {
+			crossings++;
+		}
+		previousError = error;
+		started = true;
+		updates++;
+		squaredErrors += error * error;
+
+		double unsaturated = kp * error + ki * (integral + error * dt) + kd
+				* derivative;
+		/* Only integrate when it does not push the output further out */
+		if (Math.abs(unsaturated) < outputLimit || (unsaturated > 0) != (error > 0)) {
+			integral += error * dt;
+			if (ki != 0) {
+				double bound = outputLimit / Math.abs(ki);
+				integral = Math.max(-bound, Math.min(bound, integral));
+			}
+		}
+
+		double output = kp * error + ki * integral + kd * derivative;
+		return Math.max(-outputLimit, Math.min(outputLimit, output));
+	}
+
+	/**
+	 * Forget the integral and the previous error
+	 */
+	public void reset() {
+		integral = 0;
+		previousError = 0;
+		started = false;
+	}
+
+	/**
+	 * Root mean square of the errors since the start
+	 */
+	public double getRmsError() {
+		return updates == 0 ? 0 : Math.sqrt(squaredErrors / updates);
+	}
+
+	/**
+	 * Number of times the error changed sign, the oscillations around the
+	 * setpoint
+	 */
+	public long getCrossings() {
+		return crossings;
+	}
+}
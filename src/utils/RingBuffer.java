@@ -0,0 +1,81 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RingBuffer class
+ *
+ * <p>Bounded queue backed by a preallocated array. It is safe for exactly one
+ * producer thread and one consumer thread, and never allocates once created.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ * @param <E> type of the elements
+ */
+public class RingBuffer<E> {
+
+	private final Object[] elements;
+	private final int mask;
+
+	/* Index of the next element to poll, only written by the consumer */
+	private final AtomicLong head = new AtomicLong();
+	/* Index of the next free slot, only written by the producer */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * @param capacity : minimum number of elements, rounded up to a power of two
+	 */
+	public RingBuffer(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		elements = new Object[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Add an element at the end of the queue (producer thread only)
+	 * @param e : element to add
+	 * @return false if the queue is full
+	 */
+	public boolean offer(E e) {
+		long t = tail.get();
+		if (t - head.get() == elements.length) {
+			return false;
+		}
+		elements[(int) t & mask] = e;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Remove the first element of the queue (consumer thread only)
+	 * @return the element, or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long h = head.get();
+		if (h == tail.get()) {
+			return null;
+		}
+		int index = (int) h & mask;
+		E e = (E) elements[index];
+		elements[index] = null;
+		head.lazySet(h + 1);
+		return e;
+	}
+
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	public int capacity() {
+		return elements.length;
+	}
+}
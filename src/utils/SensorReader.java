@@ -0,0 +1,77 @@
+package utils;
+
+import lejos.robotics.SampleProvider;
+
+/**
+ * SensorReader class
+ *
+ * <p>Reads a sensor into a sample array allocated once, so reading it in
+ * every tick of the control loop does not allocate. The values of the last
+ * sample are read with {@link #get(int)}, and {@link #getTimestamp()} tells
+ * when it was fetched.</p>
+ *
+ * <p>Only used by the robot thread.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class SensorReader {
+
+	private final SampleProvider provider;
+	private final float[] sample;
+	/* Local time of the last sample, in milliseconds */
+	private long timestamp = 0;
+	private long samples = 0;
+
+	/**
+	 * Constructor
+	 * @param provider : mode of the sensor to read
+	 */
+	public SensorReader(SampleProvider provider) {
+		this.provider = provider;
+		this.sample = new float[provider.sampleSize()];
+	}
+
+	/**
+	 * Fetch a new sample from the sensor
+	 */
+	public void fetch() {
+		provider.fetchSample(sample, 0);
+		timestamp = System.currentTimeMillis();
+		samples++;
+	}
+
+	/**
+	 * Value of the last sample
+	 * @param index : index of the value in the sample (0 for the red of an
+	 * 	RGB sample, the distance of an ultrasonic one)
+	 */
+	public float get(int index) {
+		return sample[index];
+	}
+
+	/**
+	 * Array of the last sample, overwritten by the next fetch
+	 */
+	public float[] getSample() {
+		return sample;
+	}
+
+	public int getSampleSize() {
+		return sample.length;
+	}
+
+	/**
+	 * Local time of the last fetch, in milliseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Number of samples fetched
+	 */
+	public long getSamples() {
+		return samples;
+	}
+}
@@ -0,0 +1,207 @@
+package utils;
+
+/**
+ * SonarSampler class
+ *
+ * <p>Reads the ultrasonic sensor from its own thread, so the control loop
+ * never waits on it. The raw distances go into a ring of the last
+ * SONAR_WINDOW readings, and the published distance is their median :</p>
+ * <ul>
+ * <li>readings out of range (infinity when nothing is in front) count as
+ * SONAR_MAX_RANGE, so they do not reach the speed laws,</li>
+ * <li>a spike shorter than half the window never becomes the median.</li>
+ * </ul>
+ *
+ * <p>The rate of change of the distance is estimated on the filtered
+ * values, and smoothed. The distance and the rate are published together
+ * in a single volatile long, so the control loop reads a consistent pair in
+ * O(1), without lock nor allocation.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class SonarSampler implements Runnable {
+
+	private final SensorReader sensor;
+
+	/* Last raw readings, and a copy sorted for the median */
+	private final float[] window = new float[Constants.SONAR_WINDOW];
+	private final float[] sorted = new float[Constants.SONAR_WINDOW];
+	private int readings = 0;
+
+	/* Filtered distance and its rate of change, sonar thread only */
+	private float filtered = 0;
+	private float rate = 0;
+	private long filteredTime = 0;
+
+	/* Nothing published yet : no distance, and no rate */
+	private final static long NO_READING = (long) Float
+			.floatToIntBits(Float.NaN) << 32;
+
+	/* Published : distance and rate packed as two floats, and their time */
+	private volatile long published = NO_READING;
+	private volatile long publishedTime = 0;
+	private volatile long samples = 0;
+	private volatile long outliers = 0;
+	private volatile float sampleRate = 0;
+
+	private volatile boolean running = false;
+
+	/**
+	 * Constructor
+	 * @param sensor : ultrasonic sensor in distance mode, only read by the
+	 * 	thread of the sampler once started
+	 */
+	public SonarSampler(SensorReader sensor) {
+		this.sensor = sensor;
+	}
+
+	/**
+	 * Start the thread of the sampler
+	 */
+	public void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		Thread t = new Thread(this, "sonar");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Wait until the first filtered distance is published
+	 * @param timeoutMs : longest wait, in milliseconds
+	 * @return false if there is still no distance
+	 */
+	public boolean awaitFirstReading(long timeoutMs) {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (samples == 0 && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		return samples > 0;
+	}
+
+	/**
+	 * Stop the thread after its current reading
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/*
+	 * Acquisition loop
+	 *
+	 * (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		long rateStart = System.currentTimeMillis();
+		long rateSamples = 0;
+		while (running) {
+			sensor.fetch();
+			add(sensor.get(0), sensor.getTimestamp());
+
+			rateSamples++;
+			long now = System.currentTimeMillis();
+			if (now - rateStart >= 1000) {
+				sampleRate = rateSamples * 1000f / (now - rateStart);
+				rateStart = now;
+				rateSamples = 0;
+			}
+
+			try {
+				Thread.sleep(Constants.SONAR_PERIOD_MS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Filter a raw reading and publish the result
+	 * @param distance : raw reading, in meters
+	 * @param time : local time of the reading, in milliseconds
+	 */
+	private void add(float distance, long time) {
+		if (Float.isNaN(distance) || distance > Constants.SONAR_MAX_RANGE) {
+			distance = Constants.SONAR_MAX_RANGE;
+		}
+		window[readings % window.length] = distance;
+		readings++;
+
+		/* Median of the readings in the window, by insertion sort */
+		int count = Math.min(readings, window.length);
+		for (int i = 0; i < count; i++) {
+			float value = window[i];
+			int j = i;
+			while (j > 0 && sorted[j - 1] > value) {
+				sorted[j] = sorted[j - 1];
+				j--;
+			}
+			sorted[j] = value;
+		}
+		float median = sorted[count / 2];
+		if (Math.abs(distance - median) > Constants.SONAR_OUTLIER) {
+			outliers++;
+		}
+
+		if (filteredTime != 0 && time > filteredTime) {
+			float instant = (median - filtered) * 1000f / (time - filteredTime);
+			rate += (instant - rate) / 4;
+		}
+		filtered = median;
+		filteredTime = time;
+
+		published = ((long) Float.floatToIntBits(filtered) << 32)
+				| (Float.floatToIntBits(rate) & 0xFFFFFFFFL);
+		publishedTime = time;
+		samples++;
+	}
+
+	/**
+	 * Last filtered distance, in meters, NaN before the first reading
+	 */
+	public float getDistance() {
+		return Float.intBitsToFloat((int) (published >>> 32));
+	}
+
+	/**
+	 * Rate of change of the distance, in meters per second, negative when
+	 * closing in
+	 */
+	public float getRate() {
+		return Float.intBitsToFloat((int) published);
+	}
+
+	/**
+	 * Local time of the reading of the last filtered distance
+	 */
+	public long getTimestamp() {
+		return publishedTime;
+	}
+
+	/**
+	 * Number of readings, and readings further than SONAR_OUTLIER from
+	 * the median, which the filter rejected
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	public long getOutliers() {
+		return outliers;
+	}
+
+	/**
+	 * Readings per second, measured over the last second
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+}
@@ -2,14 +2,20 @@ package utils;
 
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Speed polynom class
  * 
  * <p>Used for speed polynom interpolation</p>
  * 
+ * <p>The polynom gives the speed as a function of the time elapsed since
+ * the start of the plan, in seconds. The plan starts when the robot
+ * receives it : see {@link #start(long)} and {@link #getValueAt(long)}.</p>
+ * 
+ * <p>Coefficients are kept in an array indexed by degree, and the
+ * polynom is evaluated with the Horner scheme, without allocation.</p>
+ * 
  * @author Nathan Olff and Felix Lahemade
  *
  */
@@ -18,67 +24,225 @@ public class SpeedPolynom implements Serializable {
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = 8421514189691585661L;
-	private Map<Integer, Double> coefficients;
+	private static final long serialVersionUID = 8421514189691585662L;
+	private double[] coefficients;
+	private int degree = -1;
+	
+	/* Local time of the start of the plan, in milliseconds */
+	private long startTime = 0;
+	
+	/* Largest number of conditions of an interpolation */
+	private final static int MAX_CONDITIONS = 5;
+	
+	/* Workspace of the interpolations of this polynom, created by the first one */
+	private transient LinearSolver solver;
 	
 	public SpeedPolynom() {
-		coefficients = new HashMap<>();
-		
+		this(2);
+	}
+	
+	/**
+	 * Constructor
+	 * @param degree : expected degree, the array grows if needed
+	 */
+	public SpeedPolynom(int degree) {
+		coefficients = new double[Math.max(1, degree + 1)];
 	}
 	
 	public void setCoeff(int at, double coeff) {
-		coefficients.put(at, coeff);
+		if (at >= coefficients.length) {
+			coefficients = Arrays.copyOf(coefficients, at + 1);
+		}
+		coefficients[at] = coeff;
+		degree = Math.max(degree, at);
+	}
+	
+	/**
+	 * Get the coefficient of a given degree
+	 * @param at : degree of the coefficient
+	 * @return the coefficient, or 0 if it was never set
+	 */
+	public double getCoeff(int at) {
+		return at <= degree ? coefficients[at] : 0;
+	}
+	
+	/**
+	 * Get the degree of the polynom
+	 * @return the highest degree with a coefficient set, -1 if none
+	 */
+	public int getDegree() {
+		return degree;
 	}
 	
+	/**
+	 * Value of the polynom
+	 * @param x : seconds since the start of the plan
+	 */
 	public double getValue(double x) {
 		double value = 0;
-		for(int key : coefficients.keySet()) {
-			value += coefficients.get(key)*Math.pow(x, key);
+		for (int i = degree; i >= 0; i--) {
+			value = value * x + coefficients[i];
+		}
+		return value;
+	}
+	
+	/**
+	 * Value of the derivative, the acceleration of the plan
+	 * @param x : seconds since the start of the plan
+	 */
+	public double getDerivative(double x) {
+		double value = 0;
+		for (int i = degree; i >= 1; i--) {
+			value = value * x + i * coefficients[i];
 		}
 		return value;
 	}
 	
+	/**
+	 * Integral of the polynom from 0, the distance travelled by the plan
+	 * @param x : seconds since the start of the plan
+	 */
+	public double getIntegral(double x) {
+		double value = 0;
+		for (int i = degree; i >= 0; i--) {
+			value = value * x + coefficients[i] / (i + 1);
+		}
+		return value * x;
+	}
+	
+	/**
+	 * Start the plan
+	 * @param now : local time, in milliseconds
+	 */
+	public void start(long now) {
+		startTime = now;
+	}
+	
+	public long getStartTime() {
+		return startTime;
+	}
+	
+	/**
+	 * Seconds elapsed since the start of the plan
+	 * @param now : local time, in milliseconds
+	 */
+	public double getElapsed(long now) {
+		return (now - startTime) / 1000.;
+	}
+	
+	/**
+	 * Value of the polynom at a given time
+	 * @param now : local time, in milliseconds
+	 */
+	public double getValueAt(long now) {
+		return getValue(getElapsed(now));
+	}
+	
 	/**
 	 * Interpolate the speed polynom using known values
 	 * 
+	 * <p>Second degree : the speed goes from speed0 to speedFinal, covering
+	 * the distance in atFinal seconds.</p>
+	 * 
 	 * @param speed0 : speed of the first car of "my" train
 	 * @param speedFinal : speed to reach at the crossing = speed of the other train
 	 * @param distance between me and the crossing
 	 * @param atFinal : optimal time to reach the crossing
+	 * @return false if there is no such polynom, it is then the constant
+	 * 	speed0
 	 */
-	public void interpolation(double speed0, double speedFinal, double distance, double atFinal) {
-		// t = 0
-		setCoeff(0, speed0);
-		// t = atFinal
-		/* Define first equation */
-		Equation e = new Equation();
-		// Try to find a and b
-		// a x² + b x + c, using previously found c and replacing x by atFinal
-		e.setCoeffA(Math.pow(atFinal, 2));
-		e.setCoeffB(atFinal);
-		e.setConstant(speed0-speedFinal);
-		System.out.println("Equation e : " + e);
-		
-		/* Define second equation */
-		Equation prim = new Equation();
-		prim.setCoeffA(Math.pow(atFinal, 3)/3.);
-		prim.setCoeffB(Math.pow(atFinal, 2)/2.);
-		prim.setConstant(speed0*atFinal);
-		prim.setConstant(prim.getConstant()-distance);
-		System.out.println("Equation prim : "+prim);
+	public boolean interpolation(double speed0, double speedFinal, double distance, double atFinal) {
+		return fit(3, speed0, speedFinal, distance, atFinal, 0, 0);
+	}
+	
+	/**
+	 * Interpolate a third degree polynom, which also starts with a given
+	 * acceleration (the current one, so the plan does not jerk the train)
+	 * 
+	 * @param acceleration0 : acceleration at the start, in m/s²
+	 * @see #interpolation(double, double, double, double)
+	 */
+	public boolean interpolation(double speed0, double speedFinal, double distance,
+			double atFinal, double acceleration0) {
+		return fit(4, speed0, speedFinal, distance, atFinal, acceleration0, 0);
+	}
+	
+	/**
+	 * Interpolate a fourth degree polynom, which also starts and ends with
+	 * given accelerations : the distance travelled is then a quintic of the
+	 * time, fixed in position, speed and acceleration at both ends
+	 * 
+	 * @param acceleration0 : acceleration at the start, in m/s²
+	 * @param accelerationFinal : acceleration at the crossing, in m/s²
+	 * @see #interpolation(double, double, double, double)
+	 */
+	public boolean interpolation(double speed0, double speedFinal, double distance,
+			double atFinal, double acceleration0, double accelerationFinal) {
+		return fit(5, speed0, speedFinal, distance, atFinal, acceleration0,
+				accelerationFinal);
+	}
+	
+	/**
+	 * Fit the coefficients to the first conditions of : v(0) = speed0,
+	 * v(atFinal) = speedFinal, integral of v from 0 to atFinal = distance,
+	 * v'(0) = acceleration0, v'(atFinal) = accelerationFinal
+	 * 
+	 * @param conditions : number of conditions used, the degree plus one
+	 */
+	private boolean fit(int conditions, double speed0, double speedFinal,
+			double distance, double atFinal, double acceleration0,
+			double accelerationFinal) {
+		if (solver == null) {
+			solver = new LinearSolver(MAX_CONDITIONS);
+		}
+		solver.clear(conditions);
+		/* Row of each condition, unknown i is the coefficient of degree i */
+		double power = 1;	// atFinal^i
+		for (int i = 0; i < conditions; i++) {
+			solver.set(0, i, i == 0 ? 1 : 0);
+			solver.set(1, i, power);
+			solver.set(2, i, power * atFinal / (i + 1));
+			if (conditions > 3) {
+				solver.set(3, i, i == 1 ? 1 : 0);
+			}
+			if (conditions > 4) {
+				solver.set(4, i, i == 0 ? 0 : i * power / atFinal);
+			}
+			power *= atFinal;
+		}
+		solver.setConstant(0, speed0);
+		solver.setConstant(1, speedFinal);
+		solver.setConstant(2, distance);
+		if (conditions > 3) {
+			solver.setConstant(3, acceleration0);
+		}
+		if (conditions > 4) {
+			solver.setConstant(4, accelerationFinal);
+		}
 		
-		/* Define system and resolve it */
-		EquationSystem system = new EquationSystem();
-		system.setEqA(e);
-		system.setEqB(prim);
-		system.resolve();
-		this.coefficients.put(1, system.getEqA().getConstant());	// final B coeff
-		this.coefficients.put(2, system.getEqB().getConstant());	// final A coeff	
+		clear();
+		if (atFinal <= 0 || !solver.solve()) {
+			setCoeff(0, speed0);
+			return false;
+		}
+		for (int i = 0; i < conditions; i++) {
+			setCoeff(i, solver.getSolution(i));
+		}
+		return true;
+	}
+	
+	/**
+	 * Remove every coefficient
+	 */
+	public void clear() {
+		Arrays.fill(coefficients, 0);
+		degree = -1;
 	}
 
 	@Override
 	public String toString() {
-		return "SpeedPolynom [coefficients=" + coefficients + "]";
+		return "SpeedPolynom [coefficients="
+				+ Arrays.toString(Arrays.copyOf(coefficients, degree + 1)) + "]";
 	}
 	
 }
@@ -0,0 +1,136 @@
+package utils;
+
+import java.io.Serializable;
+
+/**
+ * SpeedProfile class
+ *
+ * <p>Speed plan between the orange mark and the crossing, as a table of
+ * speed percentages indexed by the distance travelled since the start of
+ * the plan, in bins of BIN_DEGREES wheel degrees. Reading the speed of a
+ * tick is one interpolation between two bins, without any conversion.</p>
+ *
+ * <p>The table is computed once from a {@link SpeedPolynom} (speed in m/s
+ * as a function of the time), or received as it is from the leader when a
+ * polynom cannot describe the plan.</p>
+ *
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public class SpeedProfile implements Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2675437119862011584L;
+
+	/* Width of a bin, in wheel degrees */
+	public final static int BIN_DEGREES = 25;
+	/* Bins covering DISTANCE_MARK_TO_CROSSING, both ends included */
+	public final static int BINS = Constants.DISTANCE_MARK_TO_CROSSING
+			/ BIN_DEGREES + 1;
+
+	/* Step of the integration of a polynom, and its longest plan */
+	private final static double TIME_STEP = 0.01;
+	private final static double MAX_DURATION = 60;
+
+	/* Speed percentage at the start of each bin */
+	private final float[] speeds = new float[BINS];
+	private boolean active = false;
+	/* Odometer of the robot when the plan started, in wheel degrees */
+	private double start = 0;
+
+	public SpeedProfile() {
+
+	}
+
+	/**
+	 * Compute the table of a polynom
+	 * @param polynom : speed in m/s, as a function of the seconds since the
+	 * 	start of the plan
+	 * @param maxSpeed : speed of the motors at 100%, in degrees per second
+	 */
+	public void build(SpeedPolynom polynom, double maxSpeed) {
+		/* m/s to percentage of the max speed */
+		double toPercentage = 100 / (maxSpeed * Math.PI / 180.
+				* (Constants.WHEEL_SIZE / 2.));
+		double degreesPerMeter = 360 / Constants.WHEEL_PERIMETER;
+
+		/* Find the time at which the plan reaches the start of each bin */
+		double t = 0;
+		double last = polynom.getValue(0) * toPercentage;
+		for (int bin = 0; bin < BINS; bin++) {
+			double degrees = bin * BIN_DEGREES;
+			while (t < MAX_DURATION
+					&& polynom.getIntegral(t) * degreesPerMeter < degrees) {
+				t += TIME_STEP;
+			}
+			if (t < MAX_DURATION) {
+				last = polynom.getValue(t) * toPercentage;
+			}
+			/* A plan which stops before the crossing keeps its last speed */
+			speeds[bin] = (float) Math.max(0, Math.min(100, last));
+		}
+	}
+
+	/**
+	 * Copy the table of another profile
+	 */
+	public void set(SpeedProfile other) {
+		System.arraycopy(other.speeds, 0, speeds, 0, BINS);
+	}
+
+	/**
+	 * Speed percentage at the start of a bin
+	 */
+	public float getBin(int bin) {
+		return speeds[bin];
+	}
+
+	public void setBin(int bin, float speed) {
+		speeds[bin] = speed;
+	}
+
+	/**
+	 * Start following the plan
+	 * @param odometer : wheel degrees travelled by the robot, corrected by
+	 * 	the odometry
+	 */
+	public void start(double odometer) {
+		start = odometer;
+		active = true;
+	}
+
+	/**
+	 * Stop following the plan
+	 */
+	public void stop() {
+		active = false;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Wheel degrees travelled since the start of the plan
+	 * @param odometer : wheel degrees travelled by the robot
+	 */
+	public double getTravelled(double odometer) {
+		return odometer - start;
+	}
+
+	/**
+	 * Speed percentage of the plan
+	 * @param odometer : wheel degrees travelled by the robot
+	 */
+	public double getSpeed(double odometer) {
+		double degrees = Math.max(0, odometer - start);
+		int bin = (int) (degrees / BIN_DEGREES);
+		if (bin >= BINS - 1) {
+			return speeds[BINS - 1];
+		}
+		double fraction = (degrees - bin * BIN_DEGREES) / BIN_DEGREES;
+		return speeds[bin] + (speeds[bin + 1] - speeds[bin]) * fraction;
+	}
+}
@@ -0,0 +1,12 @@
+package utils;
+
+/**
+ * SteeringPolitic : enumeration of the ways of following the line
+ * 
+ * @author Nathan Olff and Felix Lahemade
+ *
+ */
+public enum SteeringPolitic {
+	BANG_BANG,	// One wheel at half speed, depending on the color
+	PID			// Continuous, on the intensity at the edge of the line
+}